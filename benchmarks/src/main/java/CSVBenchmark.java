@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares FileParser.loadCSV with CSVTokenizer on a data file (data/mesh.csv by default)
+ * Usage: java CSVBenchmark [file] [iterations]
+ */
+public class CSVBenchmark {
+    //Number of untimed runs of each parser before measuring
+    private static final int WARMUP = 5;
+
+    public static void main(String[] args) throws IOException {
+        String fileName = (args.length > 0) ? args[0] : "data/mesh.csv";
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        CSVTokenizer tokenizer = new CSVTokenizer();
+
+        //Check both parsers agree before timing them
+        int rows = FileParser.loadCSV(fileName).size();
+        if (tokenizer.readDoubles(fileName).rows != rows) {
+            throw new IllegalStateException("Parsers disagree on number of rows in " + fileName);
+        }
+
+        for (int i = 0; i < WARMUP; i++) {
+            FileParser.loadCSV(fileName);
+            tokenizer.readDoubles(fileName);
+        }
+
+        long start = System.nanoTime();
+        long allocated = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            FileParser.loadCSV(fileName);
+        }
+        report("FileParser.loadCSV", start, allocated, iterations);
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            tokenizer.readDoubles(fileName);
+        }
+        report("CSVTokenizer.readDoubles", start, allocated, iterations);
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            tokenizer.readInts(fileName);
+        }
+        report("CSVTokenizer.readInts", start, allocated, iterations);
+    }
+
+    /**
+     * Print average time and allocation per iteration
+     */
+    private static void report(String name, long start, long allocated, int iterations) {
+        double ms = (System.nanoTime() - start) / 1e6 / iterations;
+        double mb = (allocatedBytes() - allocated) / 1e6 / iterations;
+        System.out.printf("%-26s %8.2f ms/op %8.2f MB allocated/op%n", name, ms, mb);
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, or 0 if not supported by the JVM
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
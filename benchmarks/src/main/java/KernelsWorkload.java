@@ -0,0 +1,89 @@
+import benchmark.KernelWorkload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Kernels run on faces loaded from the files in data/, called by KernelBenchmark through KernelWorkload
+ */
+public class KernelsWorkload implements KernelWorkload {
+    //Components added to the average face, as many as a face given a handful of weights uses
+    private static final int COMPONENTS = 3;
+
+    //Kernels being measured
+    private Kernels kernels;
+
+    //Positions and colours of the three reference faces, their weights, and the face blended from them
+    private final float[][] positions;
+    private final float[][] colours;
+    private final float[] weights = {1f / 3, 1f / 3, 1f / 3};
+    private final Face syntheticFace;
+
+    //Average shape followed by each component's shape, and the weight of each
+    private final float[][] shapes;
+    private final float[] shapeWeights;
+    private final float[] shape;
+
+    //Screen coordinates of each vertex
+    private final float[] screenX;
+    private final float[] screenY;
+
+    public KernelsWorkload() {
+        FileParser parser = new FileParser("data/mesh.csv", "data/sh_ev.csv", "data/tx_ev.csv", "000");
+        ArrayList<Face> faces = new ArrayList<>();
+        faces.add(parser.loadFace("001"));
+        faces.add(parser.loadFace("002"));
+        faces.add(parser.loadFace("003"));
+        syntheticFace = new Face(faces, new ArrayList<>(Arrays.asList(1.0 / 3, 1.0 / 3, 1.0 / 3)));
+
+        positions = new float[][] {faces.get(0).positions, faces.get(1).positions, faces.get(2).positions};
+        colours = new float[][] {faces.get(0).colours, faces.get(1).colours, faces.get(2).colours};
+
+        shapes = new float[COMPONENTS + 1][];
+        shapeWeights = new float[COMPONENTS + 1];
+        try {
+            for (int c = 0; c <= COMPONENTS; c++) {
+                shapes[c] = parser.loadShape(c);
+                shapeWeights[c] = (c == 0) ? 1 : (float) (0.5 * parser.getShapeEV(c));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        shape = new float[shapes[0].length];
+
+        screenX = new float[syntheticFace.mesh.vertexCount];
+        screenY = new float[syntheticFace.mesh.vertexCount];
+    }
+
+    @Override
+    public void select(String name) {
+        kernels = "vector".equals(name) ? Kernels.vector() : new ScalarKernels();
+        if (kernels == null) {
+            throw new IllegalStateException("Vector kernels not available, build on JDK 17 or later and run with "
+                    + "--add-modules jdk.incubator.vector");
+        }
+    }
+
+    @Override
+    public Object blend() {
+        kernels.weightedSum(syntheticFace.positions, positions, weights, 0, syntheticFace.positions.length);
+        kernels.weightedSum(syntheticFace.colours, colours, weights, 0, syntheticFace.colours.length);
+        return syntheticFace;
+    }
+
+    @Override
+    public Object accumulate() {
+        kernels.weightedSum(shape, shapes, shapeWeights, 0, shape.length);
+        return shape;
+    }
+
+    @Override
+    public Object transform(String projection) {
+        ScreenTransform transform = new ScreenTransform(Projection.valueOf(projection), 50000, 1280, 720,
+                -250, -300, 14);
+        kernels.transform(transform, syntheticFace.positions, syntheticFace.mesh.vertexCount, screenX, screenY);
+        return screenX;
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how tile-binned rasterization of the 1280x720 synthetic face view scales with threads
+ * Usage: java RasterScalingBenchmark [iterations]
+ */
+public class RasterScalingBenchmark {
+    //Number of untimed frames before measuring
+    private static final int WARMUP = 20;
+
+    public static void main(String[] args) {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+
+        //Synthetic face from the middle of the triangle, as rendered by Rendering
+        FileParser parser = new FileParser("data/mesh.csv", "data/sh_ev.csv", "data/tx_ev.csv", "000");
+        ArrayList<Face> faces = new ArrayList<>();
+        faces.add(parser.loadFace("001"));
+        faces.add(parser.loadFace("002"));
+        faces.add(parser.loadFace("003"));
+        Face face = new Face(faces, new ArrayList<>(Arrays.asList(1.0 / 3, 1.0 / 3, 1.0 / 3)));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        ArrayList<Integer> threadCounts = new ArrayList<>(Arrays.asList(1, 2, 4, 8));
+        if (!threadCounts.contains(cores)) {
+            threadCounts.add(cores);
+        }
+
+        System.out.println("Available processors: " + cores);
+        double baseline = 0;
+        for (int threads : threadCounts) {
+            Rasterizer rasterizer = new Rasterizer(1280, 720);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            rasterizer.setPool(pool);
+
+            //Transform once so only rasterization is measured
+            face.prepare(rasterizer.batch, Projection.ORTHOGRAPHIC, 1, 1280, 720, -250, -300, 14);
+
+            for (int i = 0; i < WARMUP; i++) {
+                rasterizer.clear(0xffffff);
+                rasterizer.draw(rasterizer.batch, Shading.FLAT);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                rasterizer.clear(0xffffff);
+                rasterizer.draw(rasterizer.batch, Shading.FLAT);
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / iterations;
+            pool.shutdown();
+
+            if (threads == 1) {
+                baseline = ms;
+            }
+            System.out.printf("%2d threads: %7.2f ms/frame  speedup %.2fx%n", threads, ms, baseline / ms);
+        }
+    }
+}
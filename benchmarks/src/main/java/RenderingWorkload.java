@@ -0,0 +1,110 @@
+import benchmark.Workload;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Rendering hot paths run against the files in data/, called by RenderingBenchmark through Workload.
+ * The synthetic face is the one in the middle of the triangle, drawn as Rendering draws it at 1280x720
+ */
+public class RenderingWorkload implements Workload {
+    //Size of offscreen image, and how the face is placed in it
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final double SHIFT_X = -250;
+    private static final double SHIFT_Y = -300;
+    private static final double SCALE = 14;
+
+    //Parser of the data files, replaced by resetParser
+    private FileParser parser;
+
+    //Three reference faces, their weights and the synthetic face blended from them
+    private final ArrayList<Face> faces = new ArrayList<>();
+    private final ArrayList<Double> weights = new ArrayList<>(Arrays.asList(1.0 / 3, 1.0 / 3, 1.0 / 3));
+    private final Face syntheticFace;
+
+    //Unnormalised shape of the average face
+    private final float[] shape;
+
+    //Triangles of the synthetic face to draw and the image they are drawn into
+    private final TriangleBatch batch = new TriangleBatch();
+    private final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private final Graphics2D graphics2D = image.createGraphics();
+
+    public RenderingWorkload() {
+        resetParser();
+        faces.add(parser.loadFace("001"));
+        faces.add(parser.loadFace("002"));
+        faces.add(parser.loadFace("003"));
+        syntheticFace = new Face(faces, weights);
+
+        try {
+            shape = parser.loadShape(parser.getAverageFace());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        //Visible triangles in depth order, as Face.display finds them
+        batch.reset(syntheticFace.mesh, syntheticFace.colours);
+        syntheticFace.transform(Projection.ORTHOGRAPHIC, 1, WIDTH, HEIGHT, SHIFT_X, SHIFT_Y, SCALE,
+                batch.screenX, batch.screenY);
+        batch.indices = syntheticFace.mesh.indices;
+        batch.cull(syntheticFace.sortByDepth(), WIDTH, HEIGHT, true);
+    }
+
+    @Override
+    public Object loadCSV(String fileName) {
+        return FileParser.loadCSV(fileName);
+    }
+
+    @Override
+    public void resetParser() {
+        parser = new FileParser("data/mesh.csv", "data/sh_ev.csv", "data/tx_ev.csv", "000");
+    }
+
+    @Override
+    public Object loadFace(String fileNum) {
+        return parser.loadFace(fileNum);
+    }
+
+    @Override
+    public Object normalise() {
+        //Normalising an already normalised shape does the same work, so the shape is not copied each time
+        FileParser.normalise(shape);
+        return shape;
+    }
+
+    @Override
+    public Object blend() {
+        return new Face(faces, weights);
+    }
+
+    @Override
+    public void changeGeometry() {
+        syntheticFace.blend(faces, new double[] {weights.get(0), weights.get(1), weights.get(2)});
+    }
+
+    @Override
+    public Object sortByDepth() {
+        return syntheticFace.sortByDepth();
+    }
+
+    @Override
+    public Object drawTriangles(String shading) {
+        Shading triangleShading = Shading.valueOf(shading);
+        graphics2D.setColor(Color.WHITE);
+        graphics2D.fillRect(0, 0, WIDTH, HEIGHT);
+
+        int[] indices = batch.indices;
+        for (int i = 0; i < batch.triangleCount; i++) {
+            int t = batch.triangles[i];
+            Triangle.draw(graphics2D, batch.screenX, batch.screenY, syntheticFace.colours,
+                    indices[t * 3], indices[t * 3 + 1], indices[t * 3 + 2], triangleShading);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,58 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the scalar kernels against the Vector API kernels, on faces from the files in data/
+ * (run from the project directory so data/ can be found). The vector kernels need the application to have been
+ * built on JDK 17 or later
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmark {
+    /**
+     * Faces and the kernels to run on them, loaded once per fork
+     */
+    @State(Scope.Thread)
+    public static class Data {
+        @Param({"scalar", "vector"})
+        String kernels;
+
+        KernelWorkload workload;
+
+        @Setup(Level.Trial)
+        public void load() throws ReflectiveOperationException {
+            workload = (KernelWorkload) Class.forName("KernelsWorkload").getConstructor().newInstance();
+            workload.select(kernels);
+        }
+    }
+
+    /**
+     * Projection to transform vertices with
+     */
+    @State(Scope.Thread)
+    public static class Projection {
+        @Param({"ORTHOGRAPHIC", "PERSPECTIVE"})
+        String projection;
+    }
+
+    @Benchmark
+    public Object blend(Data data) {
+        return data.workload.blend();
+    }
+
+    @Benchmark
+    public Object accumulate(Data data) {
+        return data.workload.accumulate();
+    }
+
+    @Benchmark
+    public Object transform(Data data, Projection projection) {
+        return data.workload.transform(projection.projection);
+    }
+}
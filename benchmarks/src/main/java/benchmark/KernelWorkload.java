@@ -0,0 +1,29 @@
+package benchmark;
+
+/**
+ * Kernels measured by KernelBenchmark, run by KernelsWorkload (in the default package, like RenderingWorkload)
+ */
+public interface KernelWorkload {
+    /**
+     * Choose the kernels to run
+     * @param kernels - "scalar" or "vector"
+     * @throws IllegalStateException if the vector kernels are not available
+     */
+    void select(String kernels);
+
+    /**
+     * @return positions and colours of a synthetic face blended from three faces
+     */
+    Object blend();
+
+    /**
+     * @return positions of the average face plus weighted components
+     */
+    Object accumulate();
+
+    /**
+     * @param projection - ORTHOGRAPHIC or PERSPECTIVE
+     * @return screen x coordinates of the synthetic face's vertices
+     */
+    Object transform(String projection);
+}
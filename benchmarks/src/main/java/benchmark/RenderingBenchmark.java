@@ -0,0 +1,90 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of loading, normalising, blending, sorting and drawing faces from the files in data/
+ * (run from the project directory so data/ can be found)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderingBenchmark {
+    /**
+     * Faces and image shared by every benchmark, loaded once per fork
+     */
+    @State(Scope.Thread)
+    public static class Data {
+        Workload workload;
+
+        @Setup(Level.Trial)
+        public void load() throws ReflectiveOperationException {
+            workload = (Workload) Class.forName("RenderingWorkload").getConstructor().newInstance();
+        }
+    }
+
+    /**
+     * Parser with nothing loaded, so each load reads the files again rather than using cached components
+     */
+    @State(Scope.Thread)
+    public static class ColdParser extends Data {
+        @Setup(Level.Invocation)
+        public void reset() {
+            workload.resetParser();
+        }
+    }
+
+    /**
+     * Synthetic face whose vertices have just changed, so its triangles have to be sorted again
+     */
+    @State(Scope.Thread)
+    public static class ChangedFace extends Data {
+        @Setup(Level.Invocation)
+        public void change() {
+            workload.changeGeometry();
+        }
+    }
+
+    /**
+     * Shading technique to draw triangles with
+     */
+    @State(Scope.Thread)
+    public static class Shading {
+        @Param({"FLAT", "GOURAUD"})
+        String shading;
+    }
+
+    @Benchmark
+    public Object loadCSV(Data data) {
+        return data.workload.loadCSV("data/sh_001.csv");
+    }
+
+    @Benchmark
+    public Object loadFace(ColdParser parser) {
+        return parser.workload.loadFace("001");
+    }
+
+    @Benchmark
+    public Object normalise(Data data) {
+        return data.workload.normalise();
+    }
+
+    @Benchmark
+    public Object blend(Data data) {
+        return data.workload.blend();
+    }
+
+    @Benchmark
+    public Object sortByDepth(ChangedFace face) {
+        return face.workload.sortByDepth();
+    }
+
+    @Benchmark
+    public Object drawTriangles(Data data, Shading shading) {
+        return data.workload.drawTriangles(shading.shading);
+    }
+}
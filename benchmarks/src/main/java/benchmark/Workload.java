@@ -0,0 +1,54 @@
+package benchmark;
+
+/**
+ * Rendering hot paths measured by RenderingBenchmark.
+ * JMH only accepts benchmarks in a named package, and the application's classes are in the default package which
+ * a named package cannot import, so the work is done by RenderingWorkload (in the default package) through this
+ * interface. Results are returned so they can be consumed and not optimised away
+ */
+public interface Workload {
+    /**
+     * @param fileName - csv file to load with FileParser.loadCSV
+     * @return rows of file
+     */
+    Object loadCSV(String fileName);
+
+    /**
+     * Create a parser with nothing loaded yet, so the next loadFace reads its files
+     */
+    void resetParser();
+
+    /**
+     * @param fileNum - face to load with FileParser.loadFace
+     * @return face
+     */
+    Object loadFace(String fileNum);
+
+    /**
+     * Normalise the shape of a face with FileParser.normalise
+     * @return normalised positions
+     */
+    Object normalise();
+
+    /**
+     * @return synthetic face blended from three faces with Face(ArrayList, ArrayList)
+     */
+    Object blend();
+
+    /**
+     * Change the synthetic face's vertices, so its depth order is no longer cached
+     */
+    void changeGeometry();
+
+    /**
+     * @return triangles of synthetic face sorted by depth, as sorted by Face.display
+     */
+    Object sortByDepth();
+
+    /**
+     * Draw every visible triangle of the synthetic face with Triangle.draw into an offscreen image
+     * @param shading - FLAT or GOURAUD
+     * @return image drawn into
+     */
+    Object drawTriangles(String shading);
+}
@@ -0,0 +1,90 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels using the Vector API, processing as many floats at once as the CPU's widest vectors hold.
+ * Only compiled on JDK 17 or later, and only loaded by Kernels when jdk.incubator.vector is available.
+ * Weighted sums give the same result as the scalar kernels; screen coordinates are computed in float rather than
+ * double precision, so can differ from them by a fraction of a thousandth of a pixel
+ */
+public class VectorKernels implements Kernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    //Vertices are gathered at most 256 bits at a time, as C2 in JDK 17 can crash compiling 512 bit gathers
+    private static final VectorSpecies<Float> GATHER_SPECIES =
+            (SPECIES.vectorBitSize() > 256) ? FloatVector.SPECIES_256 : SPECIES;
+
+    //Offset of each lane's vertex in positions, to gather one coordinate of a vector's worth of vertices
+    private static final int[] VERTEX_OFFSETS = new int[GATHER_SPECIES.length()];
+
+    static {
+        for (int lane = 0; lane < VERTEX_OFFSETS.length; lane++) {
+            VERTEX_OFFSETS[lane] = lane * 3;
+        }
+    }
+
+    @Override
+    public void weightedSum(float[] out, float[][] values, float[] weights, int start, int end) {
+        int i = start;
+        int upperBound = start + SPECIES.loopBound(end - start);
+
+        //Each vector of out is finished for every array before moving on, so it is only written once
+        for (; i < upperBound; i += SPECIES.length()) {
+            FloatVector sum = FloatVector.fromArray(SPECIES, values[0], i).mul(weights[0]);
+            for (int k = 1; k < values.length; k++) {
+                //Multiply then add rather than fma, to round as the scalar kernels do
+                sum = sum.add(FloatVector.fromArray(SPECIES, values[k], i).mul(weights[k]));
+            }
+            sum.intoArray(out, i);
+        }
+
+        //Values left over after the last whole vector
+        for (; i < end; i++) {
+            float sum = weights[0] * values[0][i];
+            for (int k = 1; k < values.length; k++) {
+                sum += weights[k] * values[k][i];
+            }
+            out[i] = sum;
+        }
+    }
+
+    @Override
+    public void transform(ScreenTransform transform, float[] positions, int vertexCount, float[] screenX,
+                          float[] screenY) {
+        float xx = (float) transform.xx, xz = (float) transform.xz, xw = (float) transform.xw;
+        float yy = (float) transform.yy, yz = (float) transform.yz, yw = (float) transform.yw;
+        float wz = (float) transform.wz, ww = (float) transform.ww;
+
+        int v = 0;
+        int upperBound = GATHER_SPECIES.loopBound(vertexCount);
+        for (; v < upperBound; v += GATHER_SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(GATHER_SPECIES, positions, v * 3, VERTEX_OFFSETS, 0);
+            FloatVector y = FloatVector.fromArray(GATHER_SPECIES, positions, v * 3 + 1, VERTEX_OFFSETS, 0);
+
+            if (transform.affine) {
+                x.mul(xx).add(xw).intoArray(screenX, v);
+                y.mul(yy).add(yw).intoArray(screenY, v);
+            } else {
+                FloatVector z = FloatVector.fromArray(GATHER_SPECIES, positions, v * 3 + 2, VERTEX_OFFSETS, 0);
+                FloatVector w = z.mul(wz).add(ww);
+                x.mul(xx).add(z.mul(xz)).add(xw).div(w).intoArray(screenX, v);
+                y.mul(yy).add(z.mul(yz)).add(yw).div(w).intoArray(screenY, v);
+            }
+        }
+
+        //Vertices left over after the last whole vector
+        for (; v < vertexCount; v++) {
+            float x = positions[v * 3];
+            float y = positions[v * 3 + 1];
+            float z = positions[v * 3 + 2];
+
+            float w = wz * z + ww;
+            screenX[v] = (xx * x + xz * z + xw) / w;
+            screenY[v] = (yy * y + yz * z + yw) / w;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + SPECIES.vectorBitSize() + " bit)";
+    }
+}
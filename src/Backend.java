@@ -0,0 +1,9 @@
+/**
+ * Method used to render faces
+ */
+public enum Backend {
+    //Java2D polygons drawn in depth order (painter's algorithm)
+    JAVA2D,
+    //Software rasterizer with a depth buffer
+    ZBUFFER
+}
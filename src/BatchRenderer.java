@@ -0,0 +1,408 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders synthetic faces to PNG files without a display, one per line of a weights file.
+ * A line is either three barycentric weights of the reference faces ("0.2, 0.3, 0.5"), as chosen by clicking in
+ * the triangle, or weights of components by file number ("1:0.5 7:-1.2"). Blank lines and lines starting with #
+ * are skipped, and faces are written to face_00000.png, face_00001.png... in the order of their lines.
+ * Faces are synthesised and rasterized in parallel, each thread reusing its own face and framebuffer. Finished
+ * frames are copied into a small pool of images which separate threads encode, so writing PNGs does not hold up
+ * rendering until every image in the pool is waiting to be written
+ * Usage: java -cp CS4102-P2-3D.jar BatchRenderer weights.txt outDir [--shading FLAT|GOURAUD]
+ *        [--projection ORTHOGRAPHIC|PERSPECTIVE] [--focal-length 1-25] [--size WIDTHxHEIGHT]
+ *        [--threads n] [--encoders n] [--faces 001,002,003]
+ */
+public class BatchRenderer {
+    //Size the face placement of Rendering was chosen for, other sizes are scaled from it
+    private static final double BASE_WIDTH = 1280;
+    private static final double BASE_HEIGHT = 720;
+    private static final double SHIFT_X = -250;
+    private static final double SHIFT_Y = -300;
+    private static final double SCALE = 14;
+
+    //Background of rendered faces
+    private static final int BACKGROUND = 0xffffff;
+
+    //Options, defaulting to the window's view of the synthetic face
+    private Shading shading = Shading.FLAT;
+    private Projection projection = Projection.ORTHOGRAPHIC;
+    private int focalLength = 14 * 10000;
+    private int width = 1280;
+    private int height = 720;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int encoders = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private String[] referenceFaces = {"001", "002", "003"};
+
+    //Model faces are synthesised from, and the reference faces barycentric weights apply to
+    private FileParser parser;
+    private final ArrayList<Face> references = new ArrayList<>();
+
+    //Face and framebuffer of each render thread
+    private final ThreadLocal<Face> threadFace = new ThreadLocal<>();
+    private final ThreadLocal<Rasterizer> threadRasterizer = new ThreadLocal<>();
+
+    //Images not waiting to be encoded, which a finished frame can be copied into
+    private BlockingQueue<BufferedImage> freeImages;
+
+    //Number of faces written, and why each face which was not written failed
+    private final AtomicInteger written = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Weights of one face to render
+     */
+    static class Job {
+        //Number of face, used to name its file
+        final int number;
+        //Weights of the three reference faces, or null if components are weighted
+        final double[] barycentric;
+        //Weight of each component by file number, or null if reference faces are weighted
+        final Map<Integer, Double> components;
+
+        Job(int number, double[] barycentric, Map<Integer, Double> components) {
+            this.number = number;
+            this.barycentric = barycentric;
+            this.components = components;
+        }
+    }
+
+    public static void main(String[] args) {
+        //Never open a display, so faces can be rendered on machines without one
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 2) {
+            System.err.println("Usage: java -cp CS4102-P2-3D.jar BatchRenderer weights.txt outDir"
+                    + " [--shading FLAT|GOURAUD] [--projection ORTHOGRAPHIC|PERSPECTIVE] [--focal-length 1-25]"
+                    + " [--size WIDTHxHEIGHT] [--threads n] [--encoders n] [--faces 001,002,003]");
+            System.exit(1);
+        }
+
+        //Write metrics as JSON on exit if a file is given (-Dmetrics=metrics.json)
+        String metricsFile = System.getProperty("metrics");
+        if (metricsFile != null) {
+            Metrics.dumpOnExit(metricsFile);
+        }
+
+        try {
+            BatchRenderer renderer = new BatchRenderer();
+            renderer.parseOptions(args);
+            List<Job> jobs = readJobs(args[0]);
+            if (renderer.render(jobs, new File(args[1])) > 0) {
+                System.exit(1);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Set options from the command line
+     * @param args - weights file and output directory, followed by options
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No value given for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--shading":
+                    shading = Shading.valueOf(value.toUpperCase());
+                    break;
+                case "--projection":
+                    projection = Projection.valueOf(value.toUpperCase());
+                    break;
+                case "--focal-length":
+                    //Same units as the focal length slider
+                    focalLength = Integer.parseInt(value) * 10000;
+                    break;
+                case "--size":
+                    String[] size = value.toLowerCase().split("x");
+                    if (size.length != 2) {
+                        throw new IllegalArgumentException("Size should be WIDTHxHEIGHT, not " + value);
+                    }
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--encoders":
+                    encoders = Integer.parseInt(value);
+                    break;
+                case "--faces":
+                    referenceFaces = value.split(",");
+                    if (referenceFaces.length != 3) {
+                        throw new IllegalArgumentException("Three reference faces are needed, not " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (width < 1 || height < 1 || threads < 1 || encoders < 1) {
+            throw new IllegalArgumentException("Size, threads and encoders must be at least 1");
+        }
+    }
+
+    /**
+     * Read the weights of each face to render
+     * @param fileName - weights file, one face per line
+     * @return face of each line which is not blank or a comment
+     * @throws IOException if file cannot be read
+     */
+    static List<Job> readJobs(String fileName) throws IOException {
+        ArrayList<Job> jobs = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                try {
+                    jobs.add(parseJob(jobs.size(), line));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(fileName + " line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+
+        return jobs;
+    }
+
+    /**
+     * @param number - number of face
+     * @param line - barycentric weights or component:weight pairs, separated by commas or spaces
+     * @return face to render
+     */
+    private static Job parseJob(int number, String line) {
+        String[] values = line.split("[,\\s]+");
+
+        //Component weights
+        if (line.contains(":")) {
+            return new Job(number, null, parseWeights(line));
+        }
+
+        //Barycentric weights
+        if (values.length != 3) {
+            throw new NumberFormatException("expected 3 barycentric weights, not " + values.length);
+        }
+        double[] barycentric = new double[3];
+        for (int i = 0; i < 3; i++) {
+            barycentric[i] = Double.parseDouble(values[i]);
+        }
+        return new Job(number, barycentric, null);
+    }
+
+    /**
+     * @param line - number:weight pairs, separated by commas or spaces
+     * @return weight by number
+     * @throws NumberFormatException if a pair is not a number and a weight
+     */
+    static TreeMap<Integer, Double> parseWeights(String line) {
+        TreeMap<Integer, Double> weights = new TreeMap<>();
+        for (String value : line.split("[,\\s]+")) {
+            String[] pair = value.split(":");
+            if (pair.length != 2) {
+                throw new NumberFormatException("expected number:weight, not " + value);
+            }
+            weights.put(Integer.parseInt(pair[0]), Double.parseDouble(pair[1]));
+        }
+        return weights;
+    }
+
+    /**
+     * Render every face, then report throughput and any faces which failed
+     * @param jobs - faces to render
+     * @param outDir - directory to write PNG files to
+     * @return number of faces which failed
+     * @throws IOException if output directory cannot be created
+     */
+    int render(List<Job> jobs, File outDir) throws IOException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Cannot create " + outDir);
+        }
+
+        long start = System.nanoTime();
+        parser = new FileParser("data/mesh.csv", "data/sh_ev.csv", "data/tx_ev.csv", "000");
+        for (String face : referenceFaces) {
+            references.add(parser.loadFace(face));
+        }
+        long loaded = System.nanoTime();
+
+        //Enough images for every renderer to hand one over while every encoder is busy
+        freeImages = new ArrayBlockingQueue<>(threads + encoders);
+        for (int i = 0; i < threads + encoders; i++) {
+            freeImages.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+
+        ExecutorService renderPool = Executors.newFixedThreadPool(threads, daemonThreads("Renderer"));
+        ExecutorService encodePool = Executors.newFixedThreadPool(encoders, daemonThreads("Encoder"));
+
+        ArrayList<Future<?>> rendered = new ArrayList<>();
+        for (Job job : jobs) {
+            rendered.add(renderPool.submit(new Runnable() {
+                public void run() {
+                    renderJob(job, encodePool, outDir);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : rendered) {
+                future.get();
+            }
+            renderPool.shutdown();
+            encodePool.shutdown();
+            encodePool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return jobs.size() - written.get();
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Could not render faces: " + e.getCause(), e.getCause());
+        }
+
+        long finished = System.nanoTime();
+        double seconds = (finished - loaded) / 1e9;
+        System.out.printf("Loaded model in %.2f s%n", (loaded - start) / 1e9);
+        System.out.printf("Rendered %d faces (%d failed) to %s in %.2f s: %.1f faces/s with %d threads"
+                        + " and %d encoders%n", written.get(), failures.size(), outDir, seconds,
+                written.get() / seconds, threads, encoders);
+        for (String failure : failures) {
+            System.err.println(failure);
+        }
+        return failures.size();
+    }
+
+    /**
+     * Synthesise and rasterize a face with this thread's face and framebuffer, then hand it to an encoder
+     * @param job - face to render
+     * @param encodePool - to encode face with
+     * @param outDir - directory to write PNG file to
+     */
+    private void renderJob(Job job, ExecutorService encodePool, File outDir) {
+        Face face = threadFace.get();
+        Rasterizer rasterizer = threadRasterizer.get();
+        if (face == null) {
+            Mesh mesh = parser.getMesh();
+            face = new Face(mesh, new float[mesh.vertexCount * 3], new float[mesh.vertexCount * 3]);
+            //Not given a pool, as faces are already rendered in parallel
+            rasterizer = new Rasterizer(width, height);
+            threadFace.set(face);
+            threadRasterizer.set(rasterizer);
+        }
+
+        //A face which cannot be synthesised (such as one weighting a component with no data) is not written
+        try {
+            synthesize(parser, references, job, face);
+        } catch (RuntimeException e) {
+            failures.add(String.format("face_%05d failed: %s", job.number,
+                    (e.getCause() != null) ? e.getMessage() + ": " + e.getCause().getMessage() : e.getMessage()));
+            return;
+        }
+        draw(face, rasterizer, shading, projection, focalLength);
+
+        //Copy the frame out so the framebuffer can be reused while the copy is encoded
+        BufferedImage image;
+        try {
+            image = freeImages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(rasterizer.pixels, 0, pixels, 0, pixels.length);
+
+        encodePool.execute(new Runnable() {
+            public void run() {
+                File file = new File(outDir, String.format("face_%05d.png", job.number));
+                try {
+                    ImageIO.write(image, "png", file);
+                    written.incrementAndGet();
+                } catch (IOException e) {
+                    failures.add(String.format("face_%05d failed: %s", job.number, e.getMessage()));
+                } finally {
+                    freeImages.add(image);
+                }
+            }
+        });
+    }
+
+    /**
+     * Overwrite a face's vertices with those of the face a job describes
+     * @param parser - model to synthesise component weighted faces with
+     * @param references - reference faces barycentric weights apply to
+     * @param job - weights of face
+     * @param face - to overwrite
+     */
+    static void synthesize(FileParser parser, ArrayList<Face> references, Job job, Face face) {
+        if (job.barycentric != null) {
+            face.blend(references, job.barycentric);
+        } else {
+            float[] bounds = parser.getModel().synthesize(job.components, face.positions, face.colours);
+            Metrics.Span span = Metrics.begin(Stage.NORMALISE);
+            FileParser.normalise(face.positions, bounds);
+            span.end();
+            face.geometryChanged();
+        }
+    }
+
+    /**
+     * Rasterize a face where the window draws the synthetic face, scaled to the size of the rasterizer's image
+     * @param face - to draw
+     * @param rasterizer - to draw face with
+     * @param shading - shading type (flat or gouraud)
+     * @param projection - projection type (orthographic or perspective)
+     * @param focalLength - focal length (distance from camera to image)
+     */
+    static void draw(Face face, Rasterizer rasterizer, Shading shading, Projection projection, int focalLength) {
+        int width = rasterizer.width;
+        int height = rasterizer.height;
+        rasterizer.clear(BACKGROUND);
+        face.rasterize(rasterizer, shading, projection, focalLength, width, height,
+                SHIFT_X * width / BASE_WIDTH, SHIFT_Y * height / BASE_HEIGHT, SCALE);
+    }
+
+    /**
+     * @param name - name of threads
+     * @return factory of daemon threads, so a failed render does not keep the program running
+     */
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for numeric csv files.
+ * Reads bytes through a reusable buffer and parses each number in place into a growable primitive array,
+ * so no objects are created per row or per value. Not thread safe, use one tokenizer per thread.
+ */
+public class CSVTokenizer {
+    //Size of the read buffer
+    private static final int BUFFER_SIZE = 1 << 16;
+    //Longest number token accepted
+    private static final int MAX_TOKEN = 64;
+
+    //Powers of ten which are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    //Bytes read from file
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    //Characters of the number currently being read
+    private final byte[] token = new byte[MAX_TOKEN];
+
+    //Values parsed from the current file, grown as required and reused between files
+    private double[] values = new double[BUFFER_SIZE];
+    //Number of values and rows parsed from the current file
+    private int count;
+    private int rows;
+    //Number of values in each row
+    private int cols;
+
+    /**
+     * Load a csv file of numbers as doubles
+     * @param fileName - to load
+     * @return matrix of file data
+     * @throws IOException if file cannot be read, a value is not a number or rows have different lengths
+     */
+    Matrix.Doubles readDoubles(String fileName) throws IOException {
+        parse(fileName);
+        return new Matrix.Doubles(rows, cols, Arrays.copyOf(values, count));
+    }
+
+    /**
+     * Load a csv file of numbers as floats
+     * @param fileName - to load
+     * @return matrix of file data
+     * @throws IOException if file cannot be read, a value is not a number or rows have different lengths
+     */
+    Matrix.Floats readFloats(String fileName) throws IOException {
+        parse(fileName);
+
+        float[] floats = new float[count];
+        for (int i = 0; i < count; i++) {
+            floats[i] = (float) values[i];
+        }
+        return new Matrix.Floats(rows, cols, floats);
+    }
+
+    /**
+     * Load a csv file of whole numbers as ints
+     * @param fileName - to load
+     * @return matrix of file data
+     * @throws IOException if file cannot be read, a value is not a number or rows have different lengths
+     */
+    Matrix.Ints readInts(String fileName) throws IOException {
+        parse(fileName);
+
+        int[] ints = new int[count];
+        for (int i = 0; i < count; i++) {
+            ints[i] = (int) Math.floor(values[i]);
+        }
+        return new Matrix.Ints(rows, cols, ints);
+    }
+
+    /**
+     * Load a file with a single value per line (such as sh_ev.csv)
+     * @param fileName - to load
+     * @return values in file
+     * @throws IOException if file cannot be read or a value is not a number
+     */
+    double[] readColumn(String fileName) throws IOException {
+        parse(fileName);
+        return Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Parse every value in the file into the values array
+     * @param fileName - to parse
+     */
+    private void parse(String fileName) throws IOException {
+        count = 0;
+        rows = 0;
+        cols = -1;
+
+        //Length of current token and number of values in current row
+        int length = 0;
+        int rowLength = 0;
+
+        try (InputStream in = new FileInputStream(fileName)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte c = buffer[i];
+
+                    if (c == ',' || c == '\n' || c == '\r') {
+                        //End of a value
+                        if (length > 0) {
+                            add(parseValue(length, fileName, rowLength + 1));
+                            length = 0;
+                            rowLength++;
+                        }
+
+                        //End of a non empty row
+                        if (c != ',' && rowLength > 0) {
+                            endRow(rowLength, fileName);
+                            rowLength = 0;
+                        }
+                    } else if (c != ' ' && c != '\t') {
+                        if (length == MAX_TOKEN) {
+                            throw new IOException("Value too long in " + fileName + " at row " + (rows + 1));
+                        }
+                        token[length++] = c;
+                    }
+                }
+            }
+        }
+
+        //Last row may not end with a new line
+        if (length > 0) {
+            add(parseValue(length, fileName, rowLength + 1));
+            rowLength++;
+        }
+        if (rowLength > 0) {
+            endRow(rowLength, fileName);
+        }
+
+        if (cols < 0) {
+            cols = 0;
+        }
+    }
+
+    /**
+     * Record the end of a row, checking it has as many values as the first
+     */
+    private void endRow(int rowLength, String fileName) throws IOException {
+        if (cols < 0) {
+            cols = rowLength;
+        } else if (rowLength != cols) {
+            throw new IOException("Row " + (rows + 1) + " of " + fileName + " has " + rowLength
+                    + " values, expected " + cols);
+        }
+        rows++;
+    }
+
+    /**
+     * Append a value, growing the values array if it is full
+     */
+    private void add(double value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[count++] = value;
+    }
+
+    /**
+     * Parse the number held in the token buffer, reporting where it is if it is not a number
+     * @param length - number of characters in token
+     * @param fileName - file being parsed
+     * @param column - position of value in its row, from 1
+     * @return value of token
+     * @throws IOException if the token is not a number
+     */
+    private double parseValue(int length, String fileName, int column) throws IOException {
+        try {
+            return parseToken(length);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid value \"" + tokenString(length) + "\" in " + fileName + " at row "
+                    + (rows + 1) + ", column " + column, e);
+        }
+    }
+
+    /**
+     * Parse the number held in the token buffer, such as -57239, 0.0027686 or 8.8434e+05
+     * @param length - number of characters in token
+     * @return value of token
+     * @throws NumberFormatException if the token is not a number
+     */
+    private double parseToken(int length) {
+        int i = 0;
+        boolean negative = false;
+
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            i++;
+        }
+
+        //Digits of number without the decimal point, and the power of ten to apply to them
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        //Whether any digit has been read, as leading zeros are not counted in digits
+        boolean number = false;
+
+        for (; i < length; i++) {
+            byte c = token[i];
+
+            if (c >= '0' && c <= '9') {
+                number = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    if (point) {
+                        exponent--;
+                    }
+                } else if (!point) {
+                    //Digits beyond long precision only affect the magnitude
+                    exponent++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else if ((c == 'e' || c == 'E') && number) {
+                exponent += parseExponent(i + 1, length);
+                break;
+            } else {
+                return parseSlow(length);
+            }
+        }
+
+        //A sign or point on its own is not a number
+        if (!number) {
+            throw new NumberFormatException("No digits in " + tokenString(length));
+        }
+
+        //Exact when mantissa and power of ten are both exactly representable
+        if (mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+            return parseSlow(length);
+        }
+
+        double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the exponent of a number in scientific form
+     * @param start - position of first character after the 'e'
+     * @param length - number of characters in token
+     * @return exponent
+     */
+    private int parseExponent(int start, int length) {
+        int i = start;
+        boolean negative = false;
+
+        if (i < length && (token[i] == '-' || token[i] == '+')) {
+            negative = token[i] == '-';
+            i++;
+        }
+
+        if (i == length) {
+            throw new NumberFormatException("Missing exponent in " + tokenString(length));
+        }
+
+        int exponent = 0;
+        for (; i < length; i++) {
+            if (token[i] < '0' || token[i] > '9') {
+                throw new NumberFormatException("Invalid exponent in " + tokenString(length));
+            }
+            exponent = Math.min(exponent * 10 + (token[i] - '0'), 10000);
+        }
+
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * Parse numbers the fast path cannot represent exactly (rare in the data files)
+     */
+    private double parseSlow(int length) {
+        return Double.parseDouble(tokenString(length));
+    }
+
+    private String tokenString(int length) {
+        return new String(token, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -1,84 +1,316 @@
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represent faces
  */
 public class Face {
-    //List of triangles making up a face
-    private ArrayList<Triangle> triangles = new ArrayList<>();
+    //Triangles worth drawing per pixel of the face's bounds on screen, when choosing a level of detail
+    private static final double TRIANGLES_PER_PIXEL = 1;
 
-    Face(ArrayList<Triangle> triangles) {
-        this.triangles = triangles;
+    //Triangles making up the face, shared with every other face
+    final Mesh mesh;
+    //x, y, z coordinate of each vertex
+    final float[] positions;
+    //r, g, b colour of each vertex
+    final float[] colours;
+
+    //Incremented whenever positions change, so results computed from them can be recalculated
+    private int geometryVersion;
+
+    //Triangles ordered by average depth, and the level of detail and geometry version it was calculated for
+    private int[] depthOrder;
+    private Mesh depthOrderLevel;
+    private int depthOrderVersion = -1;
+    //Average depth of each triangle and space to sort with, kept between sorts
+    private float[] depthKeys;
+    private int[] sortBuffer;
+    private final int[] histograms = new int[4 * 256];
+
+    //Screen coordinates used when displaying with Java2D, created the first time the face is displayed
+    private TriangleBatch displayBatch;
+
+    /**
+     * @param mesh - triangles of face
+     * @param positions - x, y, z coordinate of each vertex in mesh
+     * @param colours - r, g, b colour of each vertex in mesh
+     */
+    Face(Mesh mesh, float[] positions, float[] colours) {
+        this.mesh = mesh;
+        this.positions = positions;
+        this.colours = colours;
     }
 
     /**
-     * Generates the new triangles for the synthetic face
-     * using the three reference faces and their weights
+     * Generates the new vertices for the synthetic face
+     * using the reference faces and their weights
      * @param faces - reference faces
      * @param weights - influence of each face based on interpolation determined by click
      */
     Face(ArrayList<Face> faces, ArrayList<Double> weights) {
-        int numTriangles = faces.get(0).triangles.size();
-
-        System.out.println(weights);
-        //For each triangle in provided faces
-        for (int t = 0; t < numTriangles; t++) {
-            int numVertices = faces.get(0).triangles.get(0).vertices.size();
-            Triangle syntheticTriangle = new Triangle();
-
-            //For each vertex in the current triangle
-            for (int v = 0; v < numVertices; v++) {
-                Vertex syntheticVertex = new Vertex(0, 0, 0, 0, 0, 0);
-
-                //Get the current vertex for each face
-                Vertex vertex0 = faces.get(0).triangles.get(t).vertices.get(v);
-                Vertex vertex1 = faces.get(1).triangles.get(t).vertices.get(v);
-                Vertex vertex2 = faces.get(2).triangles.get(t).vertices.get(v);
-
-                //Generate a new 'synthetic' vertex using the three existing vertices and the weights of each face
-                syntheticVertex = applyWeight(syntheticVertex, vertex0, weights.get(0));
-                syntheticVertex = applyWeight(syntheticVertex, vertex1, weights.get(1));
-                syntheticVertex = applyWeight(syntheticVertex, vertex2, weights.get(2));
-
-                //Add the new 'synthetic' vertex to a new 'synthetic' triangle
-                syntheticTriangle.vertices.add(syntheticVertex);
+        this.mesh = faces.get(0).mesh;
+        this.positions = new float[faces.get(0).positions.length];
+        this.colours = new float[faces.get(0).colours.length];
+
+        double[] faceWeights = new double[faces.size()];
+        for (int f = 0; f < faceWeights.length; f++) {
+            faceWeights[f] = weights.get(f);
+        }
+        blend(faces, faceWeights);
+    }
+
+    /**
+     * Generates the vertices of a face blended from any number of faces
+     * @param weights - influence of each face, faces with no weight are skipped (at least one face)
+     * @throws IllegalArgumentException if there are no faces, or the weights sum to zero
+     */
+    Face(Map<Face, Double> weights) {
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("No faces to blend");
+        }
+        Face first = weights.keySet().iterator().next();
+        this.mesh = first.mesh;
+        this.positions = new float[first.positions.length];
+        this.colours = new float[first.colours.length];
+
+        blend(weights);
+    }
+
+    /**
+     * Overwrites this face's vertices in place with a blend of the reference faces,
+     * so a synthetic face can be updated repeatedly without allocating
+     * @param faces - reference faces, any number
+     * @param weights - influence of each face, faces with no weight are skipped. Weights are divided by their sum,
+     *                  so the blend stays the size and colour of a face however they are scaled
+     * @throws IllegalArgumentException if the weights sum to zero
+     */
+    void blend(List<Face> faces, double[] weights) {
+        //Only faces with weight contribute, so weights can be sparse over many faces
+        int count = 0;
+        double sum = 0;
+        for (double weight : weights) {
+            if (weight != 0) {
+                count++;
+                sum += weight;
+            }
+        }
+        if (sum == 0) {
+            throw new IllegalArgumentException("Weights of faces sum to zero");
+        }
+
+        Metrics.Span span = Metrics.begin(Stage.SYNTHESIZE);
+        float[][] facePositions = new float[count][];
+        float[][] faceColours = new float[count][];
+        float[] faceWeights = new float[count];
+        for (int f = 0, k = 0; f < weights.length; f++) {
+            if (weights[f] != 0) {
+                facePositions[k] = faces.get(f).positions;
+                faceColours[k] = faces.get(f).colours;
+                faceWeights[k] = (float) (weights[f] / sum);
+                k++;
             }
+        }
+
+        //Generate new 'synthetic' vertices using the vertices of the faces and the weights of each face
+        MorphableModel.weightedSum(positions, facePositions, faceWeights, null);
+        MorphableModel.weightedSum(colours, faceColours, faceWeights, null);
+
+        geometryVersion++;
+        span.end();
+    }
 
-            //Add the synthetic triangle to the triangles of the new face
-            this.triangles.add(syntheticTriangle);
+    /**
+     * Overwrites this face's vertices in place with a blend of any number of faces
+     * @param weights - influence of each face, faces with no weight are skipped, divided by their sum
+     * @throws IllegalArgumentException if the weights sum to zero
+     */
+    void blend(Map<Face, Double> weights) {
+        ArrayList<Face> faces = new ArrayList<>(weights.size());
+        double[] faceWeights = new double[weights.size()];
+        for (Map.Entry<Face, Double> weight : weights.entrySet()) {
+            faceWeights[faces.size()] = weight.getValue();
+            faces.add(weight.getKey());
         }
+        blend(faces, faceWeights);
     }
 
     /**
-     * Apply influence of vertex v to synthetic vertex
-     * @param synthetic - new synthetic vertex
-     * @param v - vertex of reference face
-     * @param weight - weight to apply to reference face vertex
-     * @return synthetic vertex with applied weight of vertex v
+     * Record that positions have been overwritten outside this class, so results computed from them (such as the
+     * depth order) are recalculated
      */
-    Vertex applyWeight(Vertex synthetic, Vertex v, double weight) {
-        synthetic.x += weight * v.x;
-        synthetic.y += weight * v.y;
-        synthetic.z += weight * v.z;
+    void geometryChanged() {
+        geometryVersion++;
+    }
 
-        synthetic.r += weight * v.r;
-        synthetic.g += weight * v.g;
-        synthetic.b += weight * v.b;
+    /**
+     * Orders triangles by average depth for use in painter's algorithm.
+     * Depth is that of the model rather than the view, so the order is kept until the face's vertices change
+     * @return triangle indices, shallowest first (owned by the face, must not be modified)
+     */
+    int[] sortByDepth() {
+        return sortByDepth(mesh);
+    }
 
-        return synthetic;
+    /**
+     * Orders triangles of a level of detail of the face's mesh by average depth for use in painter's algorithm
+     * @param level - face's mesh or a simplified version of it
+     * @return triangle indices in level, shallowest first (owned by the face, must not be modified)
+     */
+    int[] sortByDepth(Mesh level) {
+        if (depthOrder != null && depthOrderLevel == level && depthOrderVersion == geometryVersion) {
+            return depthOrder;
+        }
+
+        Metrics.Span span = Metrics.begin(Stage.SORT);
+        int[] indices = level.indices;
+        int triangleCount = level.triangleCount();
+
+        if (depthOrder == null || depthOrder.length != triangleCount) {
+            depthOrder = new int[triangleCount];
+            depthKeys = new float[triangleCount];
+            sortBuffer = new int[triangleCount];
+        }
+
+        for (int t = 0; t < triangleCount; t++) {
+            depthKeys[t] = (positions[indices[t * 3] * 3 + 2]
+                    + positions[indices[t * 3 + 1] * 3 + 2]
+                    + positions[indices[t * 3 + 2] * 3 + 2]) / 3;
+            depthOrder[t] = t;
+        }
+
+        radixSort(depthKeys, depthOrder, sortBuffer, histograms);
+        depthOrderLevel = level;
+        depthOrderVersion = geometryVersion;
+        span.end();
+        return depthOrder;
     }
 
     /**
-     * Compares two triangles by average depth for sorting
+     * Sorts a permutation by float keys with a least significant digit radix sort, one pass per byte of key.
+     * The sort is stable, so ties keep their original order
+     * @param keys - key of each item
+     * @param order - items to sort, sorted in place
+     * @param buffer - space to sort with, at least as long as order
+     * @param histograms - space to count bytes of keys with, 4 * 256 long
      */
-    public class TriangleComparator implements Comparator<Triangle> {
-        @Override
-        public int compare(Triangle t1, Triangle t2) {
-            return t1.averageDepth().compareTo(t2.averageDepth());
+    static void radixSort(float[] keys, int[] order, int[] buffer, int[] histograms) {
+        int count = order.length;
+        Arrays.fill(histograms, 0);
+
+        //Count every byte of every key in one pass
+        for (int i = 0; i < count; i++) {
+            int key = sortable(keys[order[i]]);
+            histograms[key & 0xff]++;
+            histograms[256 + ((key >>> 8) & 0xff)]++;
+            histograms[512 + ((key >>> 16) & 0xff)]++;
+            histograms[768 + (key >>> 24)]++;
+        }
+
+        int[] from = order;
+        int[] to = buffer;
+        for (int pass = 0; pass < 4; pass++) {
+            int offset = pass * 256;
+            int shift = pass * 8;
+
+            //Convert counts to start positions
+            int start = 0;
+            for (int digit = 0; digit < 256; digit++) {
+                int digitCount = histograms[offset + digit];
+                histograms[offset + digit] = start;
+                start += digitCount;
+            }
+
+            for (int i = 0; i < count; i++) {
+                int item = from[i];
+                int digit = (sortable(keys[item]) >>> shift) & 0xff;
+                to[histograms[offset + digit]++] = item;
+            }
+
+            int[] swap = from;
+            from = to;
+            to = swap;
         }
+        //After an even number of passes the result is back in order
+    }
+
+    /**
+     * Map float bits to an int which, compared unsigned, sorts in the same order as the float
+     */
+    private static int sortable(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) | 0x80000000);
+    }
+
+    /**
+     * Transforms the face to screen space ready to be drawn
+     * @param batch - to store screen coordinates and triangles to draw in
+     * @param projection - projection type (orthographic or perspective)
+     * @param focalLength - focal length (distance from camera to image)
+     * @param width - of screen
+     * @param height - of screen
+     * @param shiftX - how much to shift image horizontally
+     * @param shiftY - how much to shift image vertically
+     * @param scale - how much to scale size of image to fit nicely on screen
+     */
+    void prepare(TriangleBatch batch, Projection projection, int focalLength, double width, double height,
+                 double shiftX, double shiftY, double scale) {
+        batch.reset(mesh, colours);
+
+        //Screen coordinates of each vertex, calculated once for all triangles sharing the vertex
+        transform(projection, focalLength, width, height, shiftX, shiftY, scale, batch.screenX, batch.screenY);
+
+        //Only draw as many triangles as the face's size on screen can show
+        batch.indices = chooseLevel(batch).indices;
+
+        //Depth of each vertex
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            batch.depth[v] = positions[v * 3 + 2];
+        }
+
+        //Draw only triangles which can be seen
+        batch.cull(null, (int) width, (int) height, false);
+    }
+
+    /**
+     * Choose a level of detail of the mesh with about as many triangles as the face's bounds on screen have pixels
+     * @param batch - holding screen coordinates of each vertex
+     * @return mesh or a simplified version of it
+     */
+    private Mesh chooseLevel(TriangleBatch batch) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            minX = Math.min(minX, batch.screenX[v]);
+            maxX = Math.max(maxX, batch.screenX[v]);
+            minY = Math.min(minY, batch.screenY[v]);
+            maxY = Math.max(maxY, batch.screenY[v]);
+        }
+
+        double area = (double) (maxX - minX) * (maxY - minY);
+        return mesh.levelFor((int) Math.min(Integer.MAX_VALUE, area * TRIANGLES_PER_PIXEL));
+    }
+
+    /**
+     * Calculates the screen coordinates of each vertex, once for all triangles sharing the vertex
+     * @param projection - projection type (orthographic or perspective)
+     * @param focalLength - focal length (distance from camera to image)
+     * @param width - of screen
+     * @param height - of screen
+     * @param shiftX - how much to shift image horizontally
+     * @param shiftY - how much to shift image vertically
+     * @param scale - how much to scale size of image to fit nicely on screen
+     * @param screenX - to store x screen coordinate of each vertex in
+     * @param screenY - to store y screen coordinate of each vertex in
+     */
+    void transform(Projection projection, int focalLength, double width, double height, double shiftX,
+                   double shiftY, double scale, float[] screenX, float[] screenY) {
+        Metrics.Span span = Metrics.begin(Stage.TRANSFORM);
+        new ScreenTransform(projection, focalLength, width, height, shiftX, shiftY, scale)
+                .apply(positions, mesh.vertexCount, screenX, screenY);
+        span.end();
     }
 
     /**
@@ -92,18 +324,56 @@ public class Face {
      * @param shiftX - how much to shift image horizontally
      * @param shiftY - how much to shift image vertically
      * @param scale - how much to scale size of image to fit nicely on screen
+     * @return triangles drawn, and how many were culled
      */
-    void display(Graphics2D graphics2D, Shading shading, Projection projection, int focalLength, double width,
-                 double height, double shiftX, double shiftY, double scale) {
-        //Copy triangles to avoid overwriting data during transformation
-        ArrayList<Triangle> trianglesToDisplay = (ArrayList<Triangle>) triangles.clone();
+    TriangleBatch display(Graphics2D graphics2D, Shading shading, Projection projection, int focalLength,
+                          double width, double height, double shiftX, double shiftY, double scale) {
+        //Screen coordinates of each vertex, kept between frames
+        if (displayBatch == null) {
+            displayBatch = new TriangleBatch();
+        }
+        displayBatch.reset(mesh, colours);
+        float[] screenX = displayBatch.screenX;
+        float[] screenY = displayBatch.screenY;
+        transform(projection, focalLength, width, height, shiftX, shiftY, scale, screenX, screenY);
 
-        //Sort triangles by average depth for use in painter's algorithm
-        Collections.sort(trianglesToDisplay, new TriangleComparator());
+        //Only draw as many triangles as the face's size on screen can show
+        Mesh level = chooseLevel(displayBatch);
+        displayBatch.indices = level.indices;
 
-        //Draw each triangle
-        for (Triangle t : trianglesToDisplay) {
-            t.draw(graphics2D, width, height, shading, projection, focalLength, shiftX, shiftY, scale);
+        //Draw each triangle which can be seen, sorted by average depth for use in painter's algorithm
+        displayBatch.cull(sortByDepth(level), (int) width, (int) height, true);
+        Metrics.Span span = Metrics.begin(Stage.SHADE);
+        int[] indices = level.indices;
+        for (int i = 0; i < displayBatch.triangleCount; i++) {
+            int t = displayBatch.triangles[i];
+            Triangle.draw(graphics2D, screenX, screenY, colours,
+                    indices[t * 3], indices[t * 3 + 1], indices[t * 3 + 2], shading);
         }
+        span.end();
+        return displayBatch;
+    }
+
+    /**
+     * Renders the face into the image of a software rasterizer. Hidden surfaces are removed with the
+     * rasterizer's depth buffer, so triangles do not need to be sorted
+     * @param rasterizer - to render triangles with
+     * @param shading - shading type (flat or gouraud)
+     * @param projection - projection type (orthographic or perspective)
+     * @param focalLength - focal length (distance from camera to image)
+     * @param width - of screen
+     * @param height - of screen
+     * @param shiftX - how much to shift image horizontally
+     * @param shiftY - how much to shift image vertically
+     * @param scale - how much to scale size of image to fit nicely on screen
+     * @return triangles drawn, and how many were culled
+     */
+    TriangleBatch rasterize(Rasterizer rasterizer, Shading shading, Projection projection, int focalLength,
+                            double width, double height, double shiftX, double shiftY, double scale) {
+        prepare(rasterizer.batch, projection, focalLength, width, height, shiftX, shiftY, scale);
+        Metrics.Span span = Metrics.begin(Stage.SHADE);
+        rasterizer.draw(rasterizer.batch, shading);
+        span.end();
+        return rasterizer.batch;
     }
 }
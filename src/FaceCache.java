@@ -0,0 +1,184 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Least recently used cache of faces within a budget of bytes of vertex data, keyed by the component a face was
+ * loaded from, the weights of the reference faces it was blended from, or the weights of the faces by file number
+ * it was blended from.
+ * Weights are quantised, so weights closer than 1 / WEIGHT_STEPS share a face.
+ * Blended faces which are evicted are kept to be reused, so a cache which is full does not allocate new faces
+ */
+public class FaceCache {
+    //Default megabytes of faces kept (-Dface.cache=MB)
+    static final long DEFAULT_BUDGET = 64;
+    //Steps each weight is quantised to
+    static final int WEIGHT_STEPS = 1024;
+
+    /**
+     * What a face is cached by
+     */
+    static final class Key {
+        //Kinds of key
+        private static final int COMPONENT = 0;
+        private static final int REFERENCE_WEIGHTS = 1;
+        private static final int FACE_WEIGHTS = 2;
+
+        private final int kind;
+        //Component number, quantised weight of each reference face, or file number and quantised weight of each face
+        private final long[] values;
+
+        private Key(int kind, long[] values) {
+            this.kind = kind;
+            this.values = values;
+        }
+
+        /**
+         * @return whether the face was blended from other faces rather than loaded
+         */
+        boolean isBlended() {
+            return kind != COMPONENT;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return kind == key.kind && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values) * 3 + kind;
+        }
+    }
+
+    //Bytes of vertex data which may be kept
+    private final long budget;
+    //Faces least recently used first
+    private final LinkedHashMap<Key, Face> faces = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    //Blended face evicted most recently, to be reused rather than allocating another
+    private Face spare;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param budget - bytes of vertex data which may be kept
+     */
+    FaceCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @param component - file number of a loaded face
+     * @return key of face
+     */
+    static Key componentKey(int component) {
+        return new Key(Key.COMPONENT, new long[] {component});
+    }
+
+    /**
+     * @param weights - weights of the reference faces a face is blended from
+     * @return key of face
+     */
+    static Key blendKey(double[] weights) {
+        long[] values = new long[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            values[i] = Math.round(weights[i] * WEIGHT_STEPS);
+        }
+        return new Key(Key.REFERENCE_WEIGHTS, values);
+    }
+
+    /**
+     * @param weights - weights of faces by file number a face is blended from
+     * @return key of face, the same whatever order the weights are in, and without faces whose weight rounds to 0
+     */
+    static Key blendKey(SortedMap<Integer, Double> weights) {
+        long[] values = new long[weights.size() * 2];
+        int length = 0;
+        for (Map.Entry<Integer, Double> weight : weights.entrySet()) {
+            long quantised = Math.round(weight.getValue() * WEIGHT_STEPS);
+            if (quantised != 0) {
+                values[length++] = weight.getKey();
+                values[length++] = quantised;
+            }
+        }
+        return new Key(Key.FACE_WEIGHTS, Arrays.copyOf(values, length));
+    }
+
+    /**
+     * @param key - of face
+     * @return face, or null if it is not cached
+     */
+    synchronized Face get(Key key) {
+        Face face = faces.get(key);
+        if (face == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return face;
+    }
+
+    /**
+     * Cache a face, evicting the least recently used faces until the cache is within its budget.
+     * A face larger than the budget is not cached
+     * @param key - of face
+     * @param face - to cache, which must not be changed while cached
+     */
+    synchronized void put(Key key, Face face) {
+        long size = size(face);
+        if (size > budget) {
+            return;
+        }
+
+        Face replaced = faces.put(key, face);
+        if (replaced != null) {
+            bytes -= size(replaced);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Key, Face>> eldest = faces.entrySet().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            Map.Entry<Key, Face> entry = eldest.next();
+            bytes -= size(entry.getValue());
+            if (entry.getKey().isBlended()) {
+                spare = entry.getValue();
+            }
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return a blended face which has been evicted, which the caller may overwrite and cache again, or null
+     */
+    synchronized Face reuse() {
+        Face face = spare;
+        spare = null;
+        return face;
+    }
+
+    /**
+     * @return hits, misses and evictions so far, and how much of the budget is used
+     */
+    synchronized String summary() {
+        return String.format("Face cache: %d hits, %d misses, %d evictions, %d faces %.1f / %.1f MB",
+                hits, misses, evictions, faces.size(), bytes / 1e6, budget / 1e6);
+    }
+
+    /**
+     * @return bytes of vertex data in a face
+     */
+    private static long size(Face face) {
+        return 4L * (face.positions.length + face.colours.length);
+    }
+}
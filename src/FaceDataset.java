@@ -0,0 +1,307 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Packed binary version of the face data files, memory mapped so that loading costs page faults rather than parsing.
+ *
+ * Layout (all values little-endian):
+ *   header     - magic, version, vertex count, triangle count, component count, EV count (6 ints, padded to 32 bytes)
+ *   mesh       - triangle count * 3 ints, zero based vertex indices
+ *   components - component count ints, file number of each stored component (0 is the average face)
+ *   (padding to a multiple of 8 bytes)
+ *   sh_ev      - EV count doubles
+ *   tx_ev      - EV count doubles
+ *   per component - vertex count * 3 floats of shape (x, y, z) followed by vertex count * 3 floats of texture (r, g, b)
+ */
+public class FaceDataset {
+    //Default location of the binary dataset, used instead of the csv files when present
+    static final String DEFAULT_FILE = "data/faces.bin";
+
+    //Identifies a face dataset file ("FDAT")
+    private static final int MAGIC = 0x54414446;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    //Number of unique vertices in each face
+    private final int vertexCount;
+    //Number of triangles in the mesh
+    private final int triangleCount;
+    //File numbers of the components stored in the dataset
+    private final int[] components;
+
+    //Views onto the mapped file
+    private final IntBuffer indices;
+    private final DoubleBuffer shEV;
+    private final DoubleBuffer txEV;
+    private final FloatBuffer[] shapes;
+    private final FloatBuffer[] textures;
+
+    /**
+     * Wraps a mapped dataset file
+     * @param buffer - mapped contents of file
+     */
+    private FaceDataset(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a face dataset file (version " + VERSION + ")");
+        }
+
+        vertexCount = buffer.getInt(8);
+        triangleCount = buffer.getInt(12);
+        int componentCount = buffer.getInt(16);
+        int evCount = buffer.getInt(20);
+
+        //A truncated or outdated file would otherwise fail part way through with unchecked exceptions
+        if (vertexCount < 0 || triangleCount < 0 || componentCount < 0 || evCount < 0) {
+            throw new IOException("Face dataset header has negative counts");
+        }
+        long expectedSize = size(vertexCount, triangleCount, componentCount, evCount);
+        if (expectedSize != buffer.capacity()) {
+            throw new IOException("Face dataset is " + buffer.capacity() + " bytes but its header describes "
+                    + expectedSize + " bytes");
+        }
+
+        //Mesh indices
+        int offset = HEADER_SIZE;
+        indices = slice(buffer, offset, triangleCount * 3 * 4).asIntBuffer();
+        offset += triangleCount * 3 * 4;
+
+        //Component file numbers
+        components = new int[componentCount];
+        slice(buffer, offset, componentCount * 4).asIntBuffer().get(components);
+        offset = align(offset + componentCount * 4);
+
+        //Eigenvalues
+        shEV = slice(buffer, offset, evCount * 8).asDoubleBuffer();
+        offset += evCount * 8;
+        txEV = slice(buffer, offset, evCount * 8).asDoubleBuffer();
+        offset += evCount * 8;
+
+        //Shape and texture of each component
+        shapes = new FloatBuffer[componentCount];
+        textures = new FloatBuffer[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            shapes[c] = slice(buffer, offset, vertexCount * 3 * 4).asFloatBuffer();
+            offset += vertexCount * 3 * 4;
+            textures[c] = slice(buffer, offset, vertexCount * 3 * 4).asFloatBuffer();
+            offset += vertexCount * 3 * 4;
+        }
+    }
+
+    /**
+     * Memory map a dataset file
+     * @param fileName - of binary dataset
+     * @return dataset backed by the mapped file
+     * @throws IOException if file cannot be read or is not a dataset
+     */
+    static FaceDataset open(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            //Mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FaceDataset(buffer);
+        }
+    }
+
+    /**
+     * Converts the csv files in a data directory into a single binary dataset
+     * @param dataDir - directory containing mesh.csv, sh_ev.csv, tx_ev.csv and sh_/tx_ files
+     * @param outFile - binary file to write
+     * @throws IOException if files cannot be read or written
+     */
+    static void convert(String dataDir, String outFile) throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        Matrix.Ints mesh = tokenizer.readInts(dataDir + "/mesh.csv");
+        double[] shEV = tokenizer.readColumn(dataDir + "/sh_ev.csv");
+        double[] txEV = tokenizer.readColumn(dataDir + "/tx_ev.csv");
+
+        //Find every component with both a shape and texture file
+        ArrayList<Integer> components = new ArrayList<>();
+        for (int n = 0; n <= 999; n++) {
+            String num = String.format("%03d", n);
+            if (new File(dataDir + "/sh_" + num + ".csv").exists() && new File(dataDir + "/tx_" + num + ".csv").exists()) {
+                components.add(n);
+            }
+        }
+
+        if (mesh.cols != 3) {
+            throw new IOException("Expected 3 vertex indices per triangle in mesh.csv but found " + mesh.cols);
+        }
+        if (components.isEmpty() || components.get(0) != 0) {
+            throw new IOException("No average face (sh_000.csv and tx_000.csv) in " + dataDir);
+        }
+
+        int vertexCount = tokenizer.readDoubles(dataDir + "/sh_000.csv").rows;
+        int triangleCount = mesh.rows;
+        int evCount = shEV.length;
+
+        //The header has one EV count and the mesh is trusted when the file is read, so both are checked here
+        if (txEV.length != evCount) {
+            throw new IOException("sh_ev.csv has " + evCount + " values but tx_ev.csv has " + txEV.length);
+        }
+        for (int index : mesh.values) {
+            if (index < 1 || index > vertexCount) {
+                throw new IOException("Vertex index " + index + " in mesh.csv is outside 1 - " + vertexCount);
+            }
+        }
+
+        long size = size(vertexCount, triangleCount, components.size(), evCount);
+
+        try (RandomAccessFile file = new RandomAccessFile(outFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            //Header
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(vertexCount).putInt(triangleCount)
+                    .putInt(components.size()).putInt(evCount);
+            buffer.position(HEADER_SIZE);
+
+            //Mesh indices, converted from the one based values in mesh.csv
+            for (int index : mesh.values) {
+                buffer.putInt(index - 1);
+            }
+
+            //Component file numbers
+            for (int n : components) {
+                buffer.putInt(n);
+            }
+            buffer.position(align(buffer.position()));
+
+            //Eigenvalues
+            for (double ev : shEV) {
+                buffer.putDouble(ev);
+            }
+            for (double ev : txEV) {
+                buffer.putDouble(ev);
+            }
+
+            //Shape and texture of each component
+            for (int n : components) {
+                String num = String.format("%03d", n);
+                putRows(buffer, tokenizer.readFloats(dataDir + "/sh_" + num + ".csv"), vertexCount);
+                putRows(buffer, tokenizer.readFloats(dataDir + "/tx_" + num + ".csv"), vertexCount);
+            }
+
+            buffer.force();
+        }
+    }
+
+    /**
+     * Converts the csv files in the data directory
+     * Usage: java FaceDataset [dataDir] [outFile]
+     * @param args - optional data directory and output file
+     */
+    public static void main(String[] args) throws IOException {
+        String dataDir = (args.length > 0) ? args[0] : "data";
+        String outFile = (args.length > 1) ? args[1] : dataDir + "/faces.bin";
+
+        convert(dataDir, outFile);
+        System.out.println("Wrote " + outFile);
+    }
+
+    /**
+     * Write the x, y, z (or r, g, b) rows of a file as floats
+     * @param buffer - to write to
+     * @param rows - of file
+     * @param vertexCount - expected number of rows
+     */
+    private static void putRows(ByteBuffer buffer, Matrix.Floats rows, int vertexCount) throws IOException {
+        if (rows.rows != vertexCount || rows.cols != 3) {
+            throw new IOException("Expected " + vertexCount + " rows of 3 values but found " + rows.rows + " of " + rows.cols);
+        }
+
+        buffer.asFloatBuffer().put(rows.values);
+        buffer.position(buffer.position() + rows.values.length * 4);
+    }
+
+    /**
+     * Little-endian view onto a region of the buffer
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return size in bytes of a dataset file with the given counts
+     */
+    private static long size(int vertexCount, int triangleCount, int componentCount, int evCount) {
+        long tables = HEADER_SIZE + (long) triangleCount * 3 * 4 + (long) componentCount * 4;
+        return ((tables + 7) & ~7L)
+                + 2L * evCount * 8
+                + (long) componentCount * vertexCount * 3 * 4 * 2;
+    }
+
+    /**
+     * Round offset up to a multiple of 8 bytes
+     */
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * @param fileNum - file number of component
+     * @return position of component in dataset, or -1 if it is not stored
+     */
+    int componentIndex(int fileNum) {
+        for (int c = 0; c < components.length; c++) {
+            if (components[c] == fileNum) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * @return zero based vertex indices, three per triangle
+     */
+    IntBuffer getIndices() {
+        return indices.duplicate();
+    }
+
+    DoubleBuffer getShapeEV() {
+        return shEV.duplicate();
+    }
+
+    DoubleBuffer getTextureEV() {
+        return txEV.duplicate();
+    }
+
+    /**
+     * @param component - position of component in dataset
+     * @return x, y, z of each vertex
+     */
+    FloatBuffer getShape(int component) {
+        return shapes[component].duplicate();
+    }
+
+    /**
+     * @param component - position of component in dataset
+     * @return r, g, b of each vertex
+     */
+    FloatBuffer getTexture(int component) {
+        return textures[component].duplicate();
+    }
+}
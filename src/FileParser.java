@@ -1,45 +1,120 @@
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /**
  * Parses required files
  */
 public class FileParser {
-    //Indices for shapes and textures of faces
-    private ArrayList<ArrayList<Double>> meshIndices;
+    //Triangles shared by every face, built from the indices in the mesh file
+    private Mesh mesh;
     //Shape weighting to apply
-    private ArrayList<Double> sh_EV;
+    private double[] sh_EV;
     //Texture weighting to apply
-    private ArrayList<Double> tx_EV;
-    //Average shape from file sh_000.csv
-    private ArrayList<ArrayList<Double>> averageShape;
-    //Average texture from file tx_000.csv
-    private ArrayList<ArrayList<Double>> averageTexture;
+    private double[] tx_EV;
+    //Binary dataset, used in place of the csv files when present
+    private FaceDataset dataset;
+    //Synthesises faces from the average face and components loaded by this parser
+    private MorphableModel model;
+    //Faces loaded and blended so far, within a budget (-Dface.cache=MB)
+    private final FaceCache faceCache =
+            new FaceCache(Long.getLong("face.cache", FaceCache.DEFAULT_BUDGET) * 1024 * 1024);
+
+    //Files to load, kept in case the csv files are needed as a fallback
+    private String meshFile;
+    private String sh_EV_File;
+    private String tx_EV_File;
+    private String averageFace;
 
     /**
-     * Constructor for FileParser class
+     * Constructor for FileParser class.
+     * If data/faces.bin exists, can be read and contains the average face, the mesh, weightings and faces are all
+     * loaded from it and the files given here are not read; it is not checked against them, so it must be generated
+     * again (java FaceDataset) when they change. Otherwise the csv files are loaded
      * @param meshFile - index file for face mesh
      * @param sh_EV_File - shape weighting file
      * @param tx_EV_File - texture weighting file
      * @param averageFace - average face file 000
+     * @throws UncheckedIOException if the csv files are needed and cannot be read or hold a value which is not a number
      */
     public FileParser(String meshFile, String sh_EV_File, String tx_EV_File, String averageFace) {
-        //Load data from files
-        this.meshIndices = loadCSV(meshFile);
-        this.sh_EV = loadEVFile(sh_EV_File);
-        this.tx_EV = loadEVFile(tx_EV_File);
-        this.averageShape = loadCSV("data/sh_" + averageFace + ".csv");
-        this.averageTexture = loadCSV("data/tx_" + averageFace + ".csv");
+        this.meshFile = meshFile;
+        this.sh_EV_File = sh_EV_File;
+        this.tx_EV_File = tx_EV_File;
+        this.averageFace = averageFace;
+
+        //Use the binary dataset if it has been generated and contains the average face
+        if (new File(FaceDataset.DEFAULT_FILE).exists()) {
+            Metrics.Span span = Metrics.begin(Stage.LOAD);
+            try {
+                FaceDataset binary = FaceDataset.open(FaceDataset.DEFAULT_FILE);
+                if (binary.componentIndex(Integer.parseInt(averageFace)) >= 0) {
+                    this.dataset = binary;
+
+                    int[] indices = new int[binary.getTriangleCount() * 3];
+                    binary.getIndices().get(indices);
+                    this.mesh = new Mesh(indices, binary.getVertexCount());
+
+                    this.sh_EV = new double[binary.getShapeEV().remaining()];
+                    binary.getShapeEV().get(sh_EV);
+                    this.tx_EV = new double[binary.getTextureEV().remaining()];
+                    binary.getTextureEV().get(tx_EV);
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                span.end();
+            }
+        }
+
+        //Otherwise load data from csv files
+        Metrics.Span span = Metrics.begin(Stage.LOAD);
+        loadCSVFiles();
+        span.end();
+    }
+
+    /**
+     * Load the mesh and weighting csv files
+     * @throws UncheckedIOException if a file cannot be read or holds a value which is not a number
+     */
+    private void loadCSVFiles() {
+        CSVTokenizer tokenizer = new CSVTokenizer();
+
+        try {
+            Matrix.Ints meshIndices = tokenizer.readInts(meshFile);
+            this.sh_EV = tokenizer.readColumn(sh_EV_File);
+            this.tx_EV = tokenizer.readColumn(tx_EV_File);
+
+            //Number of vertices is the number of rows in the average face
+            int vertexCount = tokenizer.readFloats(shapeFile(Integer.parseInt(averageFace))).rows;
+
+            //Convert one based indices in mesh file to zero based indices
+            int[] indices = meshIndices.values;
+            for (int i = 0; i < indices.length; i++) {
+                indices[i]--;
+            }
+            this.mesh = new Mesh(indices, vertexCount);
+        } catch (IOException e) {
+            //The parser is unusable without the mesh and weightings
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
      * Load a csv file
+     * Reference implementation kept for comparison with CSVTokenizer, which is used to load faces
      * @param fileName - to load
      * @return - matrix (2D arraylist) of double representing file data
      */
-    public ArrayList<ArrayList<Double>> loadCSV(String fileName) {
+    public static ArrayList<ArrayList<Double>> loadCSV(String fileName) {
         //Matrix of file data
         ArrayList<ArrayList<Double>>  fileData = new ArrayList<>();
 
@@ -64,10 +139,11 @@ public class FileParser {
 
     /**
      * Load EV file
+     * Reference implementation kept for comparison with CSVTokenizer, which is used to load faces
      * @param evFile - to load
      * @return matrix of data from EV files
      */
-    public ArrayList<Double> loadEVFile(String evFile) {
+    public static ArrayList<Double> loadEVFile(String evFile) {
         //Matrix of file data
         ArrayList<Double> evData = new ArrayList<>();
 
@@ -89,148 +165,260 @@ public class FileParser {
     }
 
     /**
-     * Load in a face file
+     * Load in a face file, or get it from the face cache if it has been loaded before
      * @param fileNum - of face to load
-     * @return Face object representing data stored in file
+     * @return Face object representing data stored in file (shared, must not be modified)
+     * @throws UncheckedIOException if the face's files cannot be read, in which case nothing is cached
      */
     public Face loadFace(String fileNum) {
         //File number (0 - 199)
         int n = Integer.parseInt(fileNum);
 
-        //Construct file name of shape and texture files
-        String shFile = "data/sh_" + fileNum + ".csv";
-        String txFile = "data/tx_" + fileNum + ".csv";
-
-        //Load shape and texture data from files
-        ArrayList<ArrayList<Double>> shFileData = loadCSV(shFile);
-        ArrayList<ArrayList<Double>> txFileData = loadCSV(txFile);
-
-        //Stores triangles of face
-        ArrayList<Triangle> triangles = new ArrayList<>();
-
-        //For each row in shape and texture data
-        for (int row = 0; row < shFileData.size(); row++) {
-            //Store shape and texture data
-            ArrayList<Double> shapes = new ArrayList<>();
-            ArrayList<Double> textures = new ArrayList<>();
-
-            //For each row in file
-            for (int col = 0; col < shFileData.get(row).size(); col++) {
-                //Multiply value in sh_00n.csv file with nth weight in sh_EV file
-                Double newShape = shFileData.get(row).get(col) * sh_EV.get(n);
-                //Multiply value in tx_00n.csv file with nth weight in tx_EV file
-                Double newTexture = txFileData.get(row).get(col) * tx_EV.get(n);
-
-                //Sum shape and and texture values with values in the average face file (sh_000.csv and tx_000.csv)
-                newShape += averageShape.get(row).get(col);
-                newTexture += averageTexture.get(row).get(col);
-
-                //Add vertex coordinate (x, y, or z)
-                shapes.add(newShape);
-                //Add colour (r, g, or b) value of vertex
-                textures.add(newTexture);
-            }
-
-            //Add (x, y, z) coordinate to list of shapes
-            shFileData.set(row, shapes);
-            //Add row (rgb value)
-            txFileData.set(row, textures);
+        FaceCache.Key key = FaceCache.componentKey(n);
+        Face face = faceCache.get(key);
+        if (face != null) {
+            return face;
         }
 
-        //Use mesh file values to index into values from sh_00n.csv and tx_00n.csv to generate vertices and triangles
-        for (ArrayList<Double> row : meshIndices) {
-            //Create new triangle
-            Triangle triangle = new Triangle();
+        //Face n is the average face plus file n's shape and texture, weighted by the nth values in the EV files
+        HashMap<Integer, Double> weights = new HashMap<>();
+        weights.put(n, 1.0);
+
+        face = getModel().synthesize(weights);
+        faceCache.put(key, face);
+        return face;
+    }
+
+    /**
+     * @return cache of faces loaded by this parser, which faces blended from them may also be kept in
+     */
+    FaceCache getFaceCache() {
+        return faceCache;
+    }
 
-            //For each row of indices in mesh file corresponding to a triangle
-            for (Double d : row) {
-                //Get the index of the coordinates of the current vertex in the row
-                int index = (int) Math.floor(d) - 1;
+    /**
+     * @return model used to synthesise faces from the files loaded by this parser
+     */
+    synchronized MorphableModel getModel() {
+        if (model == null) {
+            model = new MorphableModel(this);
+        }
+        return model;
+    }
 
-                //Get the x,y,z coordinates of the current vertex
-                double x = shFileData.get(index).get(0);
-                double y = shFileData.get(index).get(1);
-                double z = shFileData.get(index).get(2);
+    /**
+     * @return triangles shared by every face
+     */
+    Mesh getMesh() {
+        return mesh;
+    }
 
-                //Get the RGB values of the current vertex
-                double r = txFileData.get(index).get(0);
-                double g = txFileData.get(index).get(1);
-                double b = txFileData.get(index).get(2);
+    /**
+     * @return file number of the average face
+     */
+    int getAverageFace() {
+        return Integer.parseInt(averageFace);
+    }
 
-                //Add vertex to triangle with coordinate (x,y,z) and colour (r,g,b)
-                triangle.vertices.add(new Vertex(x, y, z, r, g, b));
-            }
+    /**
+     * @return number of components listed in the EV files
+     */
+    int getComponentCount() {
+        return sh_EV.length;
+    }
 
-            //Add triangle to list of triangles in face
-            triangles.add(triangle);
+    /**
+     * @param n - file number of component
+     * @return whether component n is listed in the EV files and its shape and texture are in the binary dataset or
+     * csv files, so it can be loaded
+     */
+    boolean hasComponent(int n) {
+        if (n < 0 || n >= getComponentCount()) {
+            return false;
         }
+        if (dataset != null && dataset.componentIndex(n) >= 0) {
+            return true;
+        }
+        return new File(shapeFile(n)).isFile() && new File(textureFile(n)).isFile();
+    }
 
-        //Normalise coordinates of triangles
-        normalise(triangles);
+    /**
+     * @param n - file number of component
+     * @return shape weighting of component n
+     */
+    double getShapeEV(int n) {
+        return sh_EV[n];
+    }
 
-        //Return face initialised with triangles
-        return new Face(triangles);
+    /**
+     * @param n - file number of component
+     * @return texture weighting of component n
+     */
+    double getTextureEV(int n) {
+        return tx_EV[n];
     }
 
     /**
-     * Normalise x and y coords to be in range -1 to 1, and z coords to be in range 0 to 1
-     * @param triangles
-     */
-    void normalise(ArrayList<Triangle> triangles) {
-        //Max and min value for x, y, and z
-        double x_max = 0;
-        double x_min = 0;
-        double y_max = 0;
-        double y_min = 0;
-        double z_max = 0;
-        double z_min = 0;
-
-        //Average depth of triangle
-        double average;
-
-        //Calculate max and min for each coordinate
-        for (Triangle t : triangles) {
-            for (Vertex v : t.vertices) {
-                if (v.x > x_max) {
-                    x_max = v.x;
-                }
+     * Load the unweighted shape of a component (x, y, z of each vertex) from sh_00n.csv or the binary dataset
+     * @param n - file number of component
+     * @return shape values
+     * @throws IOException if component cannot be read
+     */
+    float[] loadShape(int n) throws IOException {
+        Metrics.Span span = Metrics.begin(Stage.LOAD);
+        try {
+            if (dataset != null && dataset.componentIndex(n) >= 0) {
+                float[] shape = new float[mesh.vertexCount * 3];
+                dataset.getShape(dataset.componentIndex(n)).get(shape);
+                return shape;
+            }
 
-                if (v.x < x_min) {
-                    x_min = v.x;
-                }
+            return loadValues(shapeFile(n));
+        } finally {
+            span.end();
+        }
+    }
 
-                if (v.y > y_max) {
-                    y_max = v.y;
-                }
+    /**
+     * Load the unweighted texture of a component (r, g, b of each vertex) from tx_00n.csv or the binary dataset
+     * @param n - file number of component
+     * @return texture values
+     * @throws IOException if component cannot be read
+     */
+    float[] loadTexture(int n) throws IOException {
+        Metrics.Span span = Metrics.begin(Stage.LOAD);
+        try {
+            if (dataset != null && dataset.componentIndex(n) >= 0) {
+                float[] texture = new float[mesh.vertexCount * 3];
+                dataset.getTexture(dataset.componentIndex(n)).get(texture);
+                return texture;
+            }
 
-                if (v.y < y_min) {
-                    y_min = v.y;
-                }
+            return loadValues(textureFile(n));
+        } finally {
+            span.end();
+        }
+    }
 
-                //Max z coordinate is the maximum average z of the three vertices in the triangle
-                if ((average = t.averageDepth()) > z_max) {
-                    z_max = average;
+    /**
+     * Load the unweighted shape and texture of a component, reading the two files in parallel
+     * @param n - file number of component
+     * @return shape and texture of component
+     * @throws IOException if component cannot be read
+     */
+    MorphableModel.Component loadComponent(int n) throws IOException {
+        //Read the shape on another thread while the texture is read on this one
+        CompletableFuture<float[]> shape = CompletableFuture.supplyAsync(new Supplier<float[]>() {
+            public float[] get() {
+                try {
+                    return loadShape(n);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            }
+        });
+        float[] texture = loadTexture(n);
 
-                //Max z coordinate is the maximum average z of the three vertices in the triangle
-                if (average < z_min) {
-                    z_min = average;
-                }
+        try {
+            return new MorphableModel.Component(shape.join(), texture);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
             }
+            throw e;
         }
+    }
 
-        //normalise coords using max and min values
-        for (Triangle t : triangles) {
-            double z = t.averageDepth();
-            for (Vertex v : t.vertices) {
-                //Scale x and y to be in range -1 to 1 (-1 is left and top of screen, 1 is right and bottom of screen)
-                v.x = 2 * (v.x - x_min) / (x_max - x_min) - 1;
-                v.y = 2 * (v.y - y_min) / (y_max - y_min) - 1;
+    /**
+     * Load a csv file of x, y, z (or r, g, b) values for each vertex
+     * @param fileName - to load
+     * @return values of file
+     */
+    private float[] loadValues(String fileName) throws IOException {
+        Matrix.Floats values = new CSVTokenizer().readFloats(fileName);
 
-                //Scale z to be in range 0 to 1 (0 is screen image is projected on and 1 is back of view frustrum)
-                v.z = (z - z_min) / (z_max - z_min);
-            }
+        if (values.rows != mesh.vertexCount || values.cols != 3) {
+            throw new IOException(fileName + " has " + values.rows + " rows of " + values.cols
+                    + " values, expected " + mesh.vertexCount + " rows of 3");
+        }
+        return values.values;
+    }
+
+    private static String shapeFile(int n) {
+        return String.format("data/sh_%03d.csv", n);
+    }
+
+    private static String textureFile(int n) {
+        return String.format("data/tx_%03d.csv", n);
+    }
 
+    /**
+     * Normalise x and y coords to be in range -1 to 1, and z coords to be in range 0 to 1
+     * @param positions - x, y, z coordinate of each vertex
+     */
+    static void normalise(float[] positions) {
+        normalise(positions, bounds(positions));
+    }
+
+    /**
+     * Normalise x and y coords to be in range -1 to 1, and z coords to be in range 0 to 1, in one pass over the
+     * vertices
+     * @param positions - x, y, z coordinate of each vertex
+     * @param bounds - of positions, as given by bounds
+     */
+    static void normalise(float[] positions, float[] bounds) {
+        float x_min = bounds[0];
+        float y_min = bounds[1];
+        float z_min = bounds[2];
+
+        //Scale x and y to be in range -1 to 1 (-1 is left and top of screen, 1 is right and bottom of screen),
+        //and z to be in range 0 to 1 (0 is screen image is projected on and 1 is back of view frustrum)
+        float x_scale = 2 / (bounds[3] - x_min);
+        float y_scale = 2 / (bounds[4] - y_min);
+        float z_scale = 1 / (bounds[5] - z_min);
+
+        for (int i = 0; i < positions.length; i += 3) {
+            positions[i] = (positions[i] - x_min) * x_scale - 1;
+            positions[i + 1] = (positions[i + 1] - y_min) * y_scale - 1;
+            positions[i + 2] = (positions[i + 2] - z_min) * z_scale;
         }
     }
+
+    /**
+     * @param positions - x, y, z coordinate of each vertex
+     * @return min x, y, z then max x, y, z of positions (including the origin)
+     */
+    static float[] bounds(float[] positions) {
+        float[] bounds = new float[6];
+        bounds(positions, 0, positions.length, bounds);
+        return bounds;
+    }
+
+    /**
+     * Extend bounds to include some of the vertices
+     * @param positions - x, y, z coordinate of each vertex
+     * @param start - index of first vertex's x coordinate
+     * @param end - index after last vertex's z coordinate
+     * @param bounds - min x, y, z then max x, y, z to extend
+     */
+    static void bounds(float[] positions, int start, int end, float[] bounds) {
+        float x_min = bounds[0], y_min = bounds[1], z_min = bounds[2];
+        float x_max = bounds[3], y_max = bounds[4], z_max = bounds[5];
+
+        for (int i = start; i < end; i += 3) {
+            x_max = Math.max(x_max, positions[i]);
+            x_min = Math.min(x_min, positions[i]);
+            y_max = Math.max(y_max, positions[i + 1]);
+            y_min = Math.min(y_min, positions[i + 1]);
+            z_max = Math.max(z_max, positions[i + 2]);
+            z_min = Math.min(z_min, positions[i + 2]);
+        }
+
+        bounds[0] = x_min;
+        bounds[1] = y_min;
+        bounds[2] = z_min;
+        bounds[3] = x_max;
+        bounds[4] = y_max;
+        bounds[5] = z_max;
+    }
 }
@@ -0,0 +1,157 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders frames on a background thread into a double buffered image, which a component only has to copy to the
+ * screen. Each request supersedes every earlier one: requests still waiting are skipped, and a frame being drawn
+ * is abandoned at its next check, so the frame shown follows the latest input rather than a queue of stale ones
+ */
+public class FrameRenderer {
+    /**
+     * Work to draw one frame
+     */
+    interface Frame {
+        /**
+         * Draw the frame, checking isCurrent between expensive stages and giving up if it returns false
+         * @param image - to draw frame into
+         * @param generation - generation of this request, to pass to isCurrent
+         * @return whether the frame was finished
+         */
+        boolean render(BufferedImage image, long generation);
+    }
+
+    //Thread frames are drawn on
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Frame renderer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //Incremented by every request, a frame is only shown if no request has been made since it was requested
+    private final AtomicLong generation = new AtomicLong();
+
+    //Component to repaint when a frame is finished
+    private final Component component;
+
+    //Last finished frame, and image the next frame is drawn into (only touched by the render thread)
+    private BufferedImage front;
+    private BufferedImage back;
+
+    //Generation of the last finished frame
+    private long frontGeneration;
+    //Image shown until a frame requested after it is finished, the size to draw it at, and when it was shown
+    private BufferedImage preview;
+    private int previewWidth, previewHeight;
+    private long previewGeneration;
+
+    //Latest request and the size it was requested at
+    private Frame latest;
+    private int width, height;
+
+    /**
+     * @param component - to repaint when a frame is finished
+     */
+    FrameRenderer(Component component) {
+        this.component = component;
+    }
+
+    /**
+     * Request a frame, superseding any frame requested before
+     * @param frame - work to draw frame
+     * @param width - of frame
+     * @param height - of frame
+     */
+    synchronized void request(Frame frame, int width, int height) {
+        long requested = generation.incrementAndGet();
+        this.latest = frame;
+        this.width = width;
+        this.height = height;
+
+        executor.execute(new Runnable() {
+            public void run() {
+                //Skip requests which were superseded while waiting
+                if (!isCurrent(requested)) {
+                    return;
+                }
+
+                if (back == null || back.getWidth() != width || back.getHeight() != height) {
+                    back = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+                }
+
+                long start = System.nanoTime();
+                if (frame.render(back, requested) && isCurrent(requested)) {
+                    Metrics.recordFrame(System.nanoTime() - start);
+                    swap(requested);
+                    component.repaint();
+                }
+            }
+        });
+    }
+
+    /**
+     * Show an image in place of the last finished frame until a frame requested after this is finished,
+     * superseding any frame requested before
+     * @param image - to show, which must not change while it is shown
+     * @param width - to draw image at
+     * @param height - to draw image at
+     */
+    synchronized void preview(BufferedImage image, int width, int height) {
+        previewGeneration = generation.incrementAndGet();
+        preview = image;
+        previewWidth = width;
+        previewHeight = height;
+        component.repaint();
+    }
+
+    /**
+     * Request the latest frame again at a new size, if it was requested at a different size
+     * @param width - of frame
+     * @param height - of frame
+     */
+    synchronized void resize(int width, int height) {
+        if (latest != null && (width != this.width || height != this.height)) {
+            request(latest, width, height);
+        }
+    }
+
+    /**
+     * @param generation - generation of a request
+     * @return whether no request has been made since
+     */
+    boolean isCurrent(long generation) {
+        return this.generation.get() == generation;
+    }
+
+    /**
+     * Draw the last finished frame
+     * @param graphics2D - to draw frame with
+     */
+    synchronized void draw(Graphics2D graphics2D) {
+        if (preview != null && previewGeneration > frontGeneration) {
+            graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics2D.drawImage(preview, 0, 0, previewWidth, previewHeight, null);
+        } else if (front != null) {
+            Metrics.Span span = Metrics.begin(Stage.BLIT);
+            graphics2D.drawImage(front, 0, 0, null);
+            span.end();
+        }
+    }
+
+    /**
+     * Show the frame just drawn, and draw the next frame into the one it replaces
+     * @param generation - generation of the request the frame was drawn for
+     */
+    private synchronized void swap(long generation) {
+        BufferedImage finished = back;
+        back = front;
+        front = finished;
+        frontGeneration = generation;
+    }
+}
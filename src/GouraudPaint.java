@@ -0,0 +1,146 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Paint which interpolates the colours of a triangle's three vertices across every pixel, so a triangle can be
+ * Gouraud shaded with a single fill.
+ * Colour is linear in screen space, so each channel is a plane stepped by a constant amount per pixel.
+ * One instance is reused for every triangle drawn by a thread, and is its own paint context
+ */
+public class GouraudPaint implements Paint, PaintContext {
+    //Opaque 0xRRGGBB pixels
+    private static final ColorModel COLOR_MODEL = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+
+    //User space coordinates (x, y of each vertex) and colours of the vertices
+    private final double[] points = new double[6];
+    //Coordinates of the vertices in device space, overwritten for every fill
+    private final double[] devicePoints = new double[6];
+    private final float[] r = new float[3];
+    private final float[] g = new float[3];
+    private final float[] b = new float[3];
+
+    //Colour planes in device space: value at origin and change per pixel in x and y
+    private double r0, drdx, drdy;
+    private double g0, dgdx, dgdy;
+    private double b0, dbdx, dbdy;
+
+    //Raster reused between fills, grown when a larger area is filled
+    private WritableRaster raster;
+
+    /**
+     * Set the triangle to shade
+     * @param screenX - x screen coordinate of each vertex
+     * @param screenY - y screen coordinate of each vertex
+     * @param colours - r, g, b colour of each vertex
+     * @param v0 - index of first vertex of triangle
+     * @param v1 - index of second vertex of triangle
+     * @param v2 - index of third vertex of triangle
+     */
+    void set(float[] screenX, float[] screenY, float[] colours, int v0, int v1, int v2) {
+        setVertex(0, screenX, screenY, colours, v0);
+        setVertex(1, screenX, screenY, colours, v1);
+        setVertex(2, screenX, screenY, colours, v2);
+    }
+
+    /**
+     * Set one vertex of the triangle to shade
+     * @param i - position of vertex in triangle
+     * @param v - index of vertex
+     */
+    private void setVertex(int i, float[] screenX, float[] screenY, float[] colours, int v) {
+        points[i * 2] = screenX[v];
+        points[i * 2 + 1] = screenY[v];
+        r[i] = colours[v * 3];
+        g[i] = colours[v * 3 + 1];
+        b[i] = colours[v * 3 + 2];
+    }
+
+    @Override
+    public PaintContext createContext(ColorModel cm, Rectangle deviceBounds, Rectangle2D userBounds,
+                                      AffineTransform xform, RenderingHints hints) {
+        //Vertices in device space
+        xform.transform(points, 0, devicePoints, 0, 3);
+        double x0 = devicePoints[0], y0 = devicePoints[1];
+
+        double ux = devicePoints[2] - x0, uy = devicePoints[3] - y0;
+        double vx = devicePoints[4] - x0, vy = devicePoints[5] - y0;
+        double det = ux * vy - vx * uy;
+
+        if (det == 0) {
+            //Degenerate triangle, use the average colour
+            r0 = (r[0] + r[1] + r[2]) / 3;
+            g0 = (g[0] + g[1] + g[2]) / 3;
+            b0 = (b[0] + b[1] + b[2]) / 3;
+            drdx = drdy = dgdx = dgdy = dbdx = dbdy = 0;
+            return this;
+        }
+
+        //Solve for the gradient of each channel from its change along two edges
+        drdx = ((r[1] - r[0]) * vy - (r[2] - r[0]) * uy) / det;
+        drdy = ((r[2] - r[0]) * ux - (r[1] - r[0]) * vx) / det;
+        dgdx = ((g[1] - g[0]) * vy - (g[2] - g[0]) * uy) / det;
+        dgdy = ((g[2] - g[0]) * ux - (g[1] - g[0]) * vx) / det;
+        dbdx = ((b[1] - b[0]) * vy - (b[2] - b[0]) * uy) / det;
+        dbdy = ((b[2] - b[0]) * ux - (b[1] - b[0]) * vx) / det;
+
+        //Value of each channel at device origin
+        r0 = r[0] - drdx * x0 - drdy * y0;
+        g0 = g[0] - dgdx * x0 - dgdy * y0;
+        b0 = b[0] - dbdx * x0 - dbdy * y0;
+        return this;
+    }
+
+    @Override
+    public int getTransparency() {
+        return OPAQUE;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return COLOR_MODEL;
+    }
+
+    @Override
+    public Raster getRaster(int left, int top, int w, int h) {
+        if (raster == null || raster.getWidth() < w || raster.getHeight() < h) {
+            raster = COLOR_MODEL.createCompatibleWritableRaster(Math.max(w, 64), Math.max(h, 64));
+        }
+
+        int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int stride = raster.getWidth();
+
+        for (int row = 0; row < h; row++) {
+            //Sample at pixel centres
+            double px = left + 0.5, py = top + row + 0.5;
+            double red = r0 + drdx * px + drdy * py;
+            double green = g0 + dgdx * px + dgdy * py;
+            double blue = b0 + dbdx * px + dbdy * py;
+
+            int i = row * stride;
+            for (int column = 0; column < w; column++, i++) {
+                pixels[i] = (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+                red += drdx;
+                green += dgdx;
+                blue += dbdx;
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * Round a colour channel and clamp it to 0 - 255
+     */
+    private static int clamp(double value) {
+        return Math.max(0, Math.min(255, (int) (value + 0.5)));
+    }
+}
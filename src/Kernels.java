@@ -0,0 +1,60 @@
+/**
+ * Loops over flat vertex arrays which faces run through every time they are blended, synthesised or drawn.
+ * The scalar implementation is always available. VectorKernels uses the incubating Vector API, and is used when it
+ * has been compiled (on JDK 17 or later) and the JVM is run with --add-modules jdk.incubator.vector.
+ * -Dkernels=scalar forces the scalar implementation
+ */
+public interface Kernels {
+    //Implementation used by faces, chosen once at startup
+    Kernels SELECTED = "scalar".equals(System.getProperty("kernels")) ? new ScalarKernels() : best();
+
+    /**
+     * Set values start to end of out to the weighted sum of the same values of each array, the first weighted array
+     * first, so every implementation gives the same result
+     * @param out - to write to
+     * @param values - arrays to sum
+     * @param weights - weight of each array
+     * @param start - first value to write
+     * @param end - index after last value to write
+     */
+    void weightedSum(float[] out, float[][] values, float[] weights, int start, int end);
+
+    /**
+     * Transform vertices to screen coordinates
+     * @param transform - from face coordinates to screen coordinates
+     * @param positions - x, y, z coordinate of each vertex
+     * @param vertexCount - number of vertices
+     * @param screenX - to store x screen coordinate of each vertex in
+     * @param screenY - to store y screen coordinate of each vertex in
+     */
+    void transform(ScreenTransform transform, float[] positions, int vertexCount, float[] screenX, float[] screenY);
+
+    /**
+     * @return name of implementation
+     */
+    String name();
+
+    /**
+     * @return Vector API kernels if they can be used, otherwise scalar kernels
+     */
+    static Kernels best() {
+        Kernels vector = vector();
+        return (vector != null) ? vector : new ScalarKernels();
+    }
+
+    /**
+     * @return Vector API kernels, or null if they were not compiled or jdk.incubator.vector is not loaded
+     */
+    static Kernels vector() {
+        //Incubator modules are only resolved when asked for, so this is also how the accelerated path is enabled
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return null;
+        }
+
+        try {
+            return (Kernels) Class.forName("VectorKernels").getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Row major matrix of values loaded from a data file
+ */
+public abstract class Matrix {
+    //Number of rows and columns
+    final int rows;
+    final int cols;
+
+    Matrix(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Matrix of doubles
+     */
+    public static class Doubles extends Matrix {
+        //Values of matrix, row by row
+        final double[] values;
+
+        Doubles(int rows, int cols, double[] values) {
+            super(rows, cols);
+            this.values = values;
+        }
+
+        double get(int row, int col) {
+            return values[row * cols + col];
+        }
+    }
+
+    /**
+     * Matrix of floats
+     */
+    public static class Floats extends Matrix {
+        //Values of matrix, row by row
+        final float[] values;
+
+        Floats(int rows, int cols, float[] values) {
+            super(rows, cols);
+            this.values = values;
+        }
+
+        float get(int row, int col) {
+            return values[row * cols + col];
+        }
+    }
+
+    /**
+     * Matrix of ints
+     */
+    public static class Ints extends Matrix {
+        //Values of matrix, row by row
+        final int[] values;
+
+        Ints(int rows, int cols, int[] values) {
+            super(rows, cols);
+            this.values = values;
+        }
+
+        int get(int row, int col) {
+            return values[row * cols + col];
+        }
+    }
+}
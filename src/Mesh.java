@@ -0,0 +1,51 @@
+/**
+ * Triangle mesh shared by every face.
+ * All faces have the same topology, so only the vertex positions and colours differ between them
+ */
+public class Mesh {
+    //Zero based vertex indices of each triangle, three per triangle
+    final int[] indices;
+    //Number of unique vertices
+    final int vertexCount;
+
+    //Simplified versions of this mesh using the same vertices, most detailed first (empty until simplified)
+    private volatile Mesh[] levels = new Mesh[0];
+
+    /**
+     * @param indices - vertex indices, three per triangle
+     * @param vertexCount - number of unique vertices
+     */
+    Mesh(int[] indices, int vertexCount) {
+        this.indices = indices;
+        this.vertexCount = vertexCount;
+    }
+
+    /**
+     * @return number of triangles in mesh
+     */
+    int triangleCount() {
+        return indices.length / 3;
+    }
+
+    /**
+     * @param levels - simplified versions of this mesh using the same vertices, most detailed first
+     */
+    void setLevels(Mesh[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Choose the most detailed level of this mesh with no more than the given number of triangles
+     * @param maxTriangles - number of triangles worth drawing
+     * @return this mesh or a simplified version of it (the least detailed if every level has too many triangles)
+     */
+    Mesh levelFor(int maxTriangles) {
+        Mesh[] levels = this.levels;
+        Mesh level = this;
+
+        for (int i = 0; i < levels.length && level.triangleCount() > maxTriangles; i++) {
+            level = levels[i];
+        }
+        return level;
+    }
+}
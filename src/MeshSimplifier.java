@@ -0,0 +1,481 @@
+import java.util.PriorityQueue;
+
+/**
+ * Reduces a mesh to fewer triangles by repeatedly collapsing the edge whose removal changes the surface least,
+ * measured with quadric error metrics (Garland and Heckbert 1997, Surface Simplification Using Quadric Error Metrics).
+ * Each edge is collapsed onto one of its existing vertices (a half edge collapse), so simplified meshes still index
+ * the original vertices and can be drawn with the positions and colours of any face.
+ */
+public class MeshSimplifier {
+    //Weight of the planes which keep the outline of the mesh in place, relative to those of its triangles
+    private static final double BOUNDARY_WEIGHT = 100;
+
+    //Triangles, three vertex indices each, and whether each has been removed
+    private final int[] triangles;
+    private final boolean[] removed;
+    private int triangleCount;
+
+    //Positions of vertices used to measure error (shared by every face, so the average face)
+    private final float[] positions;
+    //Error quadric of each vertex, 10 unique values of a symmetric 4 x 4 matrix
+    private final double[] quadrics;
+    //Whether each vertex is on the outline of the mesh, and whether it has been collapsed into another
+    private final boolean[] boundary;
+    private final boolean[] collapsed;
+    //Incremented whenever a vertex's quadric changes, so queued collapses using it can be recognised as stale
+    private final int[] versions;
+
+    //Triangles using each vertex (may include removed triangles until the list is next compacted)
+    private final int[][] vertexTriangles;
+    private final int[] vertexTriangleCounts;
+
+    //Scratch marks for finding shared neighbours of two vertices
+    private final int[] marks;
+    private int mark;
+
+    //Collapses ordered by cost, cheapest first
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+
+    /**
+     * Collapse of one vertex onto another, with the versions of both vertices when its cost was calculated
+     */
+    private static class Collapse implements Comparable<Collapse> {
+        final double cost;
+        final int from, to;
+        final int fromVersion, toVersion;
+
+        Collapse(double cost, int from, int to, int fromVersion, int toVersion) {
+            this.cost = cost;
+            this.from = from;
+            this.to = to;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    /**
+     * Simplify a mesh to several levels of detail
+     * @param mesh - mesh to simplify
+     * @param positions - x, y, z coordinate of each vertex to measure error with
+     * @param fractions - fraction of triangles to keep at each level, largest first
+     * @return mesh for each level, sharing the vertices of the original mesh
+     */
+    static Mesh[] simplify(Mesh mesh, float[] positions, double[] fractions) {
+        MeshSimplifier simplifier = new MeshSimplifier(mesh, positions);
+        Mesh[] levels = new Mesh[fractions.length];
+
+        for (int level = 0; level < fractions.length; level++) {
+            simplifier.collapseTo((int) (mesh.triangleCount() * fractions[level]));
+            levels[level] = new Mesh(simplifier.indices(), mesh.vertexCount);
+        }
+        return levels;
+    }
+
+    /**
+     * @param mesh - mesh to simplify
+     * @param positions - x, y, z coordinate of each vertex to measure error with
+     */
+    private MeshSimplifier(Mesh mesh, float[] positions) {
+        int vertexCount = mesh.vertexCount;
+        this.triangles = mesh.indices.clone();
+        this.triangleCount = mesh.triangleCount();
+        this.removed = new boolean[triangleCount];
+        this.positions = positions;
+        this.quadrics = new double[vertexCount * 10];
+        this.boundary = new boolean[vertexCount];
+        this.collapsed = new boolean[vertexCount];
+        this.versions = new int[vertexCount];
+        this.marks = new int[vertexCount];
+
+        //Triangles using each vertex
+        vertexTriangleCounts = new int[vertexCount];
+        for (int i : triangles) {
+            vertexTriangleCounts[i]++;
+        }
+        vertexTriangles = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexTriangles[v] = new int[vertexTriangleCounts[v]];
+            vertexTriangleCounts[v] = 0;
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[t * 3 + corner];
+                vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+            }
+        }
+
+        //Each vertex's quadric is the sum of the planes of its triangles, weighted by area
+        for (int t = 0; t < triangleCount; t++) {
+            double[] plane = plane(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2]);
+            if (plane != null) {
+                for (int corner = 0; corner < 3; corner++) {
+                    addPlane(triangles[t * 3 + corner], plane, plane[4]);
+                }
+            }
+        }
+
+        //Edges used by only one triangle are on the outline of the mesh. Keep them in place with planes through
+        //the edge perpendicular to its triangle
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                int a = triangles[t * 3 + corner];
+                int b = triangles[t * 3 + (corner + 1) % 3];
+                if (sharedTriangles(a, b) == 1) {
+                    boundary[a] = true;
+                    boundary[b] = true;
+                    addBoundaryPlane(t, a, b);
+                }
+            }
+        }
+
+        //Queue collapses in both directions along every edge
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                int a = triangles[t * 3 + corner];
+                int b = triangles[t * 3 + (corner + 1) % 3];
+                queueCollapse(a, b);
+                queueCollapse(b, a);
+            }
+        }
+    }
+
+    /**
+     * Collapse edges, cheapest first, until no more than target triangles remain or no edge can be collapsed
+     * @param target - number of triangles to reduce the mesh to
+     */
+    private void collapseTo(int target) {
+        while (triangleCount > target && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            int u = collapse.from;
+            int v = collapse.to;
+
+            //Skip collapses made stale by earlier collapses
+            if (collapsed[u] || collapsed[v] || versions[u] != collapse.fromVersion
+                    || versions[v] != collapse.toVersion) {
+                continue;
+            }
+
+            if (canCollapse(u, v)) {
+                collapse(u, v);
+            }
+        }
+    }
+
+    /**
+     * @return vertex indices of the remaining triangles, in their original order
+     */
+    private int[] indices() {
+        int[] indices = new int[triangleCount * 3];
+        int i = 0;
+        for (int t = 0; t < removed.length; t++) {
+            if (!removed[t]) {
+                indices[i++] = triangles[t * 3];
+                indices[i++] = triangles[t * 3 + 1];
+                indices[i++] = triangles[t * 3 + 2];
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Check a collapse keeps the mesh manifold, keeps its outline and does not fold any triangle over
+     * @param u - vertex to remove
+     * @param v - vertex to move its triangles to
+     * @return whether u can be collapsed onto v
+     */
+    private boolean canCollapse(int u, int v) {
+        int shared = sharedTriangles(u, v);
+        if (shared == 0) {
+            return false;
+        }
+
+        //Outline vertices may only move along the outline
+        if (boundary[u] && shared != 1) {
+            return false;
+        }
+
+        //Vertices neighbouring both u and v must be exactly those opposite the edge, or the mesh would pinch
+        mark++;
+        forEachNeighbour(u, true);
+        if (countMarkedNeighbours(v) != shared) {
+            return false;
+        }
+
+        //No triangle moving from u to v may flip over
+        for (int i = 0; i < vertexTriangleCounts[u]; i++) {
+            int t = vertexTriangles[u][i];
+            if (removed[t] || contains(t, v)) {
+                continue;
+            }
+
+            double[] before = normal(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2], -1, -1);
+            double[] after = normal(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2], u, v);
+            if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collapse u onto v, removing the triangles they share and moving the rest of u's triangles to v
+     * @param u - vertex to remove
+     * @param v - vertex to keep
+     */
+    private void collapse(int u, int v) {
+        for (int i = 0; i < vertexTriangleCounts[u]; i++) {
+            int t = vertexTriangles[u][i];
+            if (removed[t]) {
+                continue;
+            }
+
+            if (contains(t, v)) {
+                removed[t] = true;
+                triangleCount--;
+            } else {
+                for (int corner = 0; corner < 3; corner++) {
+                    if (triangles[t * 3 + corner] == u) {
+                        triangles[t * 3 + corner] = v;
+                    }
+                }
+                addTriangle(v, t);
+            }
+        }
+
+        collapsed[u] = true;
+        vertexTriangleCounts[u] = 0;
+        for (int i = 0; i < 10; i++) {
+            quadrics[v * 10 + i] += quadrics[u * 10 + i];
+        }
+        compact(v);
+        versions[v]++;
+
+        //Re-cost collapses along every edge of v
+        mark++;
+        forEachNeighbour(v, false);
+    }
+
+    /**
+     * Mark each neighbour of a vertex, and optionally only mark rather than re-cost edges to them
+     * @param v - vertex
+     * @param markOnly - whether to only mark neighbours, rather than also queue collapses along edges to them
+     */
+    private void forEachNeighbour(int v, boolean markOnly) {
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = vertexTriangles[v][i];
+            if (removed[t]) {
+                continue;
+            }
+
+            for (int corner = 0; corner < 3; corner++) {
+                int w = triangles[t * 3 + corner];
+                if (w == v || marks[w] == mark) {
+                    continue;
+                }
+
+                marks[w] = mark;
+                if (!markOnly) {
+                    queueCollapse(v, w);
+                    queueCollapse(w, v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count neighbours of a vertex marked by the last call to forEachNeighbour
+     * @param v - vertex
+     * @return number of marked neighbours, each counted once
+     */
+    private int countMarkedNeighbours(int v) {
+        int count = 0;
+        int seen = mark + 1;
+
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = vertexTriangles[v][i];
+            if (removed[t]) {
+                continue;
+            }
+
+            for (int corner = 0; corner < 3; corner++) {
+                int w = triangles[t * 3 + corner];
+                if (w != v && marks[w] == mark) {
+                    marks[w] = seen;
+                    count++;
+                }
+            }
+        }
+
+        mark = seen;
+        return count;
+    }
+
+    /**
+     * @return number of remaining triangles using both a and b
+     */
+    private int sharedTriangles(int a, int b) {
+        int count = 0;
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            if (!removed[t] && contains(t, b)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return whether triangle t uses vertex v
+     */
+    private boolean contains(int t, int v) {
+        return triangles[t * 3] == v || triangles[t * 3 + 1] == v || triangles[t * 3 + 2] == v;
+    }
+
+    /**
+     * Add a triangle to a vertex's list, growing the list if full
+     */
+    private void addTriangle(int v, int t) {
+        if (vertexTriangleCounts[v] == vertexTriangles[v].length) {
+            int[] grown = new int[Math.max(8, vertexTriangles[v].length * 2)];
+            System.arraycopy(vertexTriangles[v], 0, grown, 0, vertexTriangleCounts[v]);
+            vertexTriangles[v] = grown;
+        }
+        vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+    }
+
+    /**
+     * Remove removed and duplicate triangles from a vertex's list
+     */
+    private void compact(int v) {
+        int[] list = vertexTriangles[v];
+        int count = 0;
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = list[i];
+            boolean duplicate = false;
+            for (int j = 0; j < count && !duplicate; j++) {
+                duplicate = list[j] == t;
+            }
+            if (!removed[t] && !duplicate) {
+                list[count++] = t;
+            }
+        }
+        vertexTriangleCounts[v] = count;
+    }
+
+    /**
+     * Queue collapse of u onto v with the error of moving both to v's position
+     */
+    private void queueCollapse(int u, int v) {
+        double x = positions[v * 3], y = positions[v * 3 + 1], z = positions[v * 3 + 2];
+        double cost = error(u, x, y, z) + error(v, x, y, z);
+        queue.add(new Collapse(cost, u, v, versions[u], versions[v]));
+    }
+
+    /**
+     * @return sum of squared distances from a point to the planes in a vertex's quadric
+     */
+    private double error(int v, double x, double y, double z) {
+        int q = v * 10;
+        return quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z
+                + 2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z
+                + 2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+    }
+
+    /**
+     * Add a plane ax + by + cz + d = 0 to a vertex's quadric
+     * @param v - vertex
+     * @param plane - a, b, c, d
+     * @param weight - weight of plane
+     */
+    private void addPlane(int v, double[] plane, double weight) {
+        double a = plane[0], b = plane[1], c = plane[2], d = plane[3];
+        int q = v * 10;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    /**
+     * Add a plane through an outline edge, perpendicular to its triangle, to the quadrics of both its vertices
+     */
+    private void addBoundaryPlane(int t, int a, int b) {
+        double[] normal = normal(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2], -1, -1);
+        double ex = positions[b * 3] - positions[a * 3];
+        double ey = positions[b * 3 + 1] - positions[a * 3 + 1];
+        double ez = positions[b * 3 + 2] - positions[a * 3 + 2];
+
+        //Perpendicular to both edge and triangle normal
+        double px = ey * normal[2] - ez * normal[1];
+        double py = ez * normal[0] - ex * normal[2];
+        double pz = ex * normal[1] - ey * normal[0];
+        double length = Math.sqrt(px * px + py * py + pz * pz);
+        if (length == 0) {
+            return;
+        }
+        px /= length;
+        py /= length;
+        pz /= length;
+
+        double d = -(px * positions[a * 3] + py * positions[a * 3 + 1] + pz * positions[a * 3 + 2]);
+        double[] plane = {px, py, pz, d};
+        double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+        addPlane(a, plane, weight);
+        addPlane(b, plane, weight);
+    }
+
+    /**
+     * @return unit plane of a triangle as a, b, c, d followed by the triangle's area, or null if it has no area
+     */
+    private double[] plane(int v0, int v1, int v2) {
+        double[] normal = normal(v0, v1, v2, -1, -1);
+        double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+        if (length == 0) {
+            return null;
+        }
+
+        double a = normal[0] / length, b = normal[1] / length, c = normal[2] / length;
+        double d = -(a * positions[v0 * 3] + b * positions[v0 * 3 + 1] + c * positions[v0 * 3 + 2]);
+        return new double[] {a, b, c, d, length / 2};
+    }
+
+    /**
+     * Unnormalised normal of a triangle, optionally with one vertex replaced by another
+     * @param v0 - first vertex
+     * @param v1 - second vertex
+     * @param v2 - third vertex
+     * @param from - vertex to replace, or -1
+     * @param to - vertex to replace it with
+     * @return x, y, z of normal
+     */
+    private double[] normal(int v0, int v1, int v2, int from, int to) {
+        if (v0 == from) {
+            v0 = to;
+        }
+        if (v1 == from) {
+            v1 = to;
+        }
+        if (v2 == from) {
+            v2 = to;
+        }
+
+        double ax = positions[v1 * 3] - positions[v0 * 3];
+        double ay = positions[v1 * 3 + 1] - positions[v0 * 3 + 1];
+        double az = positions[v1 * 3 + 2] - positions[v0 * 3 + 2];
+        double bx = positions[v2 * 3] - positions[v0 * 3];
+        double by = positions[v2 * 3 + 1] - positions[v0 * 3 + 1];
+        double bz = positions[v2 * 3 + 2] - positions[v0 * 3 + 2];
+        return new double[] {ay * bz - az * by, az * bx - ax * bz, ax * by - ay * bx};
+    }
+}
@@ -0,0 +1,268 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time and memory taken by each stage of loading and rendering, and a rolling window of frame times.
+ * Stages are timed with Span:
+ *     Metrics.Span span = Metrics.begin(Stage.SORT);
+ *     ...
+ *     span.end();
+ * Each span is added to totals for its stage and emitted as a StageEvent for Java Flight Recorder.
+ * Stages are only timed once metrics are enabled (when shown or written on exit) or while StageEvent is being
+ * recorded, otherwise begin returns a span which does nothing.
+ * Allocation is counted for the thread running the stage only, so work it hands to other threads is not included,
+ * and stages may run inside others (e.g. LOAD inside SYNTHESIZE when a component is first used)
+ */
+public class Metrics {
+    //Number of most recent frames kept for percentiles
+    static final int FRAME_WINDOW = 240;
+
+    //Per thread allocation counter, or null if the JVM does not provide one
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    //Whether stages are added to the totals
+    private static volatile boolean enabled;
+    //Event used only to ask whether stage events are being recorded, so no event is allocated when they are not
+    private static final StageEvent EVENT_TYPE = new StageEvent();
+    //Span returned while stages are not timed
+    private static final Span DISABLED = new Span();
+
+    //Totals for each stage
+    private static final int STAGES = Stage.values().length;
+    private static final AtomicLongArray counts = new AtomicLongArray(STAGES);
+    private static final AtomicLongArray nanos = new AtomicLongArray(STAGES);
+    private static final AtomicLongArray bytes = new AtomicLongArray(STAGES);
+
+    //Most recent frame times in nanoseconds, as a ring buffer
+    private static final long[] frames = new long[FRAME_WINDOW];
+    private static long frameCount;
+
+    //Milliseconds from the JVM starting to the first frame being shown and to the window being usable, 0 until then
+    private static volatile long firstFrameMillis;
+    private static volatile long interactiveMillis;
+
+    /**
+     * One run of a stage, from begin to end
+     */
+    static class Span {
+        //Stage being run, or null if the span does nothing
+        private final Stage stage;
+        private final long start;
+        private final long allocatedStart;
+        //Flight recorder event, or null if stage events are not being recorded
+        private final StageEvent event;
+
+        /**
+         * Span which does nothing
+         */
+        private Span() {
+            this.stage = null;
+            this.start = 0;
+            this.allocatedStart = 0;
+            this.event = null;
+        }
+
+        private Span(Stage stage, boolean recorded) {
+            this.stage = stage;
+            this.allocatedStart = allocatedBytes();
+            this.event = recorded ? new StageEvent() : null;
+            if (event != null) {
+                event.begin();
+            }
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Finish the stage, adding it to the totals of its stage
+         */
+        void end() {
+            if (stage == null) {
+                return;
+            }
+            long duration = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedStart;
+
+            if (enabled) {
+                int s = stage.ordinal();
+                counts.incrementAndGet(s);
+                nanos.addAndGet(s, duration);
+                bytes.addAndGet(s, allocated);
+            }
+
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name();
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Start timing a stage
+     * @param stage - stage being run
+     * @return span to end when the stage is finished
+     */
+    static Span begin(Stage stage) {
+        boolean recorded = EVENT_TYPE.isEnabled();
+        if (!enabled && !recorded) {
+            return DISABLED;
+        }
+        return new Span(stage, recorded);
+    }
+
+    /**
+     * Start adding stages to the totals, or stop
+     * @param enable - whether stages are added to the totals
+     */
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Add the time taken to render a frame to the rolling window
+     * @param duration - nanoseconds taken
+     */
+    static void recordFrame(long duration) {
+        synchronized (frames) {
+            frames[(int) (frameCount % FRAME_WINDOW)] = duration;
+            frameCount++;
+        }
+    }
+
+    /**
+     * @param percentile - 0 to 100
+     * @return frame time in milliseconds at the percentile over the most recent frames, or 0 if none
+     */
+    static double framePercentile(double percentile) {
+        long[] window;
+        synchronized (frames) {
+            window = Arrays.copyOf(frames, (int) Math.min(frameCount, FRAME_WINDOW));
+        }
+        if (window.length == 0) {
+            return 0;
+        }
+
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile / 100 * window.length) - 1;
+        return window[Math.max(0, Math.min(window.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * @return number of frames recorded
+     */
+    static long frameCount() {
+        synchronized (frames) {
+            return frameCount;
+        }
+    }
+
+    /**
+     * Record the time to first frame, if it has not been recorded
+     */
+    static void recordFirstFrame() {
+        if (firstFrameMillis == 0) {
+            firstFrameMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+    }
+
+    /**
+     * Record the time to interactive, if it has not been recorded
+     */
+    static void recordInteractive() {
+        if (interactiveMillis == 0) {
+            interactiveMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+    }
+
+    /**
+     * @return time to first frame and time to interactive
+     */
+    static String startup() {
+        return String.format("Startup: first frame %d ms, interactive %d ms", firstFrameMillis, interactiveMillis);
+    }
+
+    /**
+     * Summary of frame times and stages for display
+     * @return one line for frame times, then one for each stage which has run
+     */
+    static ArrayList<String> summary() {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(startup());
+        lines.add(String.format("Frame: p50 %.1f ms, p99 %.1f ms (%d frames)",
+                framePercentile(50), framePercentile(99), frameCount()));
+
+        for (Stage stage : Stage.values()) {
+            long count = counts.get(stage.ordinal());
+            if (count > 0) {
+                lines.add(String.format("%-10s %6d runs %9.2f ms avg %9.2f MB avg", stage.name().toLowerCase(),
+                        count, nanos.get(stage.ordinal()) / 1e6 / count,
+                        bytes.get(stage.ordinal()) / 1e6 / count));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return frame times and totals for each stage as JSON
+     */
+    static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"startup\": {\"firstFrameMs\": ").append(firstFrameMillis)
+                .append(", \"interactiveMs\": ").append(interactiveMillis).append("},\n");
+        json.append("  \"frames\": {\"count\": ").append(frameCount())
+                .append(", \"p50Ms\": ").append(framePercentile(50))
+                .append(", \"p99Ms\": ").append(framePercentile(99)).append("},\n  \"stages\": {");
+
+        for (Stage stage : Stage.values()) {
+            int s = stage.ordinal();
+            json.append(s == 0 ? "\n" : ",\n").append("    \"").append(stage.name().toLowerCase())
+                    .append("\": {\"count\": ").append(counts.get(s))
+                    .append(", \"totalNanos\": ").append(nanos.get(s))
+                    .append(", \"allocatedBytes\": ").append(bytes.get(s)).append('}');
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    /**
+     * Write the metrics as JSON to a file when the program exits, enabling them
+     * @param fileName - file to write to
+     */
+    static void dumpOnExit(String fileName) {
+        setEnabled(true);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                try (Writer writer = new FileWriter(fileName)) {
+                    writer.write(toJson());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "Metrics dump"));
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or 0 if unknown
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean;
+            }
+        }
+        return null;
+    }
+}
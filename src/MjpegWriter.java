@@ -0,0 +1,222 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes frames as JPEG images to a Motion JPEG AVI file, streaming each frame to disk as it is written.
+ * Sizes and frame counts in the headers are written as 0 and filled in on close.
+ *
+ * Layout (all values little-endian):
+ *   RIFF 'AVI '
+ *     LIST 'hdrl'
+ *       'avih' - main header: frame time, flags, frame count, stream count, width, height
+ *       LIST 'strl'
+ *         'strh' - video stream header: 'vids', 'MJPG' handler, frame rate, frame count, frame rectangle
+ *         'strf' - BITMAPINFOHEADER with 'MJPG' compression
+ *     LIST 'movi'
+ *       '00dc' - JPEG of each frame (padded to an even length)
+ *     'idx1' - offset and size of each frame, relative to 'movi'
+ */
+public class MjpegWriter implements Closeable {
+    //Size of everything before the first frame: RIFF, hdrl list and movi list headers
+    private static final int HEADER_SIZE = 12 + 12 + 64 + 12 + 64 + 48 + 12;
+    //Offsets of header values filled in on close
+    private static final int RIFF_SIZE = 4;
+    private static final int MAX_BYTES_PER_SECOND = 36;
+    private static final int TOTAL_FRAMES = 48;
+    private static final int SUGGESTED_BUFFER_SIZE = 60;
+    private static final int STREAM_LENGTH = 140;
+    private static final int STREAM_BUFFER_SIZE = 144;
+    private static final int MOVI_SIZE = HEADER_SIZE - 8;
+    //AVIF_HASINDEX, and AVIIF_KEYFRAME as every JPEG is a key frame
+    private static final int HAS_INDEX = 0x10;
+    private static final int KEY_FRAME = 0x10;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int framesPerSecond;
+
+    //JPEG encoder and the buffer each frame is encoded into, reused for every frame
+    private final ImageWriter jpegWriter;
+    private final ImageWriteParam jpegParam;
+    private final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    //Offset from 'movi' and size of each frame written, 8 bytes per frame
+    private int[] index = new int[256];
+    private int frameCount;
+    private int largestFrame;
+    private long position = HEADER_SIZE;
+
+    /**
+     * @param fileName - AVI file to write
+     * @param width - of frames
+     * @param height - of frames
+     * @param framesPerSecond - frame rate
+     * @param quality - JPEG quality, 0 to 1
+     * @throws IOException if file cannot be written
+     */
+    MjpegWriter(String fileName, int width, int height, int framesPerSecond, float quality) throws IOException {
+        this.framesPerSecond = framesPerSecond;
+        this.jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        this.jpegParam = jpegWriter.getDefaultWriteParam();
+        jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        jpegParam.setCompressionQuality(quality);
+
+        this.file = new RandomAccessFile(fileName, "rw");
+        this.channel = file.getChannel();
+        file.setLength(0);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fourCC(header, "RIFF").putInt(0);
+        fourCC(header, "AVI ");
+
+        fourCC(header, "LIST").putInt(4 + 64 + 12 + 64 + 48);
+        fourCC(header, "hdrl");
+
+        //Main header
+        fourCC(header, "avih").putInt(56);
+        header.putInt(1000000 / framesPerSecond).putInt(0).putInt(0).putInt(HAS_INDEX);
+        header.putInt(0).putInt(0).putInt(1).putInt(0);
+        header.putInt(width).putInt(height).putInt(0).putInt(0).putInt(0).putInt(0);
+
+        fourCC(header, "LIST").putInt(4 + 64 + 48);
+        fourCC(header, "strl");
+
+        //Video stream header
+        fourCC(header, "strh").putInt(56);
+        fourCC(header, "vids");
+        fourCC(header, "MJPG");
+        header.putInt(0).putShort((short) 0).putShort((short) 0).putInt(0);
+        header.putInt(1).putInt(framesPerSecond).putInt(0).putInt(0);
+        header.putInt(0).putInt(-1).putInt(0);
+        header.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+
+        //Format of frames
+        fourCC(header, "strf").putInt(40);
+        header.putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) 24);
+        fourCC(header, "MJPG");
+        header.putInt(width * height * 3).putInt(0).putInt(0).putInt(0).putInt(0);
+
+        fourCC(header, "LIST").putInt(0);
+        fourCC(header, "movi");
+
+        header.flip();
+        write(header, 0);
+    }
+
+    /**
+     * Encode a frame and append it to the file
+     * @param frame - image of frame, the size given to the constructor
+     * @throws IOException if frame cannot be encoded or written
+     */
+    void write(BufferedImage frame) throws IOException {
+        jpeg.reset();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(jpeg)) {
+            jpegWriter.setOutput(output);
+            jpegWriter.write(null, new IIOImage(frame, null, null), jpegParam);
+        }
+        int size = jpeg.size();
+
+        if (frameCount * 2 == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        //Offset from the 'movi' fourCC
+        index[frameCount * 2] = (int) (position - (HEADER_SIZE - 4));
+        index[frameCount * 2 + 1] = size;
+        frameCount++;
+        largestFrame = Math.max(largestFrame, size);
+
+        chunkHeader.clear();
+        fourCC(chunkHeader, "00dc").putInt(size);
+        chunkHeader.flip();
+        position += write(chunkHeader, position);
+
+        //Chunks are padded to an even length
+        ByteBuffer data = ByteBuffer.wrap(jpeg.toByteArray(), 0, size);
+        position += write(data, position);
+        if ((size & 1) != 0) {
+            position += write(ByteBuffer.allocate(1), position);
+        }
+    }
+
+    /**
+     * Write the index and fill in the header, then close the file
+     * @throws IOException if file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long moviEnd = position;
+
+            ByteBuffer idx1 = ByteBuffer.allocate(8 + frameCount * 16).order(ByteOrder.LITTLE_ENDIAN);
+            fourCC(idx1, "idx1").putInt(frameCount * 16);
+            for (int f = 0; f < frameCount; f++) {
+                fourCC(idx1, "00dc").putInt(KEY_FRAME).putInt(index[f * 2]).putInt(index[f * 2 + 1]);
+            }
+            idx1.flip();
+            position += write(idx1, position);
+
+            long seconds = Math.max(1, frameCount / framesPerSecond);
+            patch(RIFF_SIZE, (int) (position - 8));
+            patch(MAX_BYTES_PER_SECOND, (int) ((moviEnd - HEADER_SIZE) / seconds));
+            patch(TOTAL_FRAMES, frameCount);
+            patch(SUGGESTED_BUFFER_SIZE, largestFrame + 8);
+            patch(STREAM_LENGTH, frameCount);
+            patch(STREAM_BUFFER_SIZE, largestFrame + 8);
+            patch(MOVI_SIZE, (int) (moviEnd - (HEADER_SIZE - 4)));
+        } finally {
+            jpegWriter.dispose();
+            file.close();
+        }
+    }
+
+    /**
+     * @return number of frames written
+     */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Overwrite a header value
+     */
+    private void patch(long offset, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(value).flip();
+        write(buffer, offset);
+    }
+
+    /**
+     * Write all of a buffer at an offset
+     * @return number of bytes written
+     */
+    private int write(ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        return length;
+    }
+
+    /**
+     * Put a four character code
+     */
+    private static ByteBuffer fourCC(ByteBuffer buffer, String code) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) code.charAt(i));
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,347 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exports an animation morphing between keyframe faces, as a PNG sequence or a Motion JPEG AVI file.
+ * Keyframes are given as in BatchRenderer's weights file (barycentric weights of the reference faces, or weights of
+ * components), and default to a loop around the corners of the triangle. Weights are interpolated linearly between
+ * consecutive keyframes.
+ * Frames are produced by three stages on their own threads, so frame n + 1 is synthesised while frame n is
+ * rasterized and frame n - 1 encoded. Stages pass a fixed number of faces and images between them through bounded
+ * queues, so memory use does not grow with the length of the animation
+ * Usage: java -cp CS4102-P2-3D.jar MorphExporter out.avi|outDir [--keyframes weights.txt] [--frames n]
+ *        [--fps n] [--quality 0-1] [--shading FLAT|GOURAUD] [--projection ORTHOGRAPHIC|PERSPECTIVE]
+ *        [--focal-length 1-25] [--size WIDTHxHEIGHT] [--faces 001,002,003]
+ */
+public class MorphExporter {
+    //Faces and images passed between stages, enough for each stage to work on one while another is queued
+    private static final int BUFFERS = 3;
+
+    //Passed on by each stage after the last frame
+    private static final Face END_OF_FACES = new Face(null, null, null);
+    private static final BufferedImage END_OF_IMAGES = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    //Options
+    private Shading shading = Shading.FLAT;
+    private Projection projection = Projection.ORTHOGRAPHIC;
+    private int focalLength = 14 * 10000;
+    private int width = 1280;
+    private int height = 720;
+    private int framesPerKeyframe = 30;
+    private int framesPerSecond = 30;
+    private float quality = 0.9f;
+    private String keyframeFile;
+    private String[] referenceFaces = {"001", "002", "003"};
+
+    //Model faces are synthesised from, and the reference faces barycentric weights apply to
+    private FileParser parser;
+    private final ArrayList<Face> references = new ArrayList<>();
+
+    //Faces free to synthesise into, and synthesised faces waiting to be rasterized
+    private final BlockingQueue<Face> freeFaces = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Face> synthesised = new ArrayBlockingQueue<>(BUFFERS + 1);
+    //Images free to copy frames into, and frames waiting to be encoded
+    private final BlockingQueue<BufferedImage> freeImages = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<BufferedImage> rasterized = new ArrayBlockingQueue<>(BUFFERS + 1);
+
+    //First error in the synthesis or rasterization stage
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Writes encoded frames
+     */
+    interface Sink {
+        void write(BufferedImage frame) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    public static void main(String[] args) {
+        //Never open a display, so animations can be exported on machines without one
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 1) {
+            System.err.println("Usage: java -cp CS4102-P2-3D.jar MorphExporter out.avi|outDir"
+                    + " [--keyframes weights.txt] [--frames n] [--fps n] [--quality 0-1] [--shading FLAT|GOURAUD]"
+                    + " [--projection ORTHOGRAPHIC|PERSPECTIVE] [--focal-length 1-25] [--size WIDTHxHEIGHT]"
+                    + " [--faces 001,002,003]");
+            System.exit(1);
+        }
+
+        try {
+            MorphExporter exporter = new MorphExporter();
+            exporter.parseOptions(args);
+            exporter.export(args[0]);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Set options from the command line
+     * @param args - output file or directory, followed by options
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No value given for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--keyframes":
+                    keyframeFile = value;
+                    break;
+                case "--frames":
+                    framesPerKeyframe = Integer.parseInt(value);
+                    break;
+                case "--fps":
+                    framesPerSecond = Integer.parseInt(value);
+                    break;
+                case "--quality":
+                    quality = Float.parseFloat(value);
+                    break;
+                case "--shading":
+                    shading = Shading.valueOf(value.toUpperCase());
+                    break;
+                case "--projection":
+                    projection = Projection.valueOf(value.toUpperCase());
+                    break;
+                case "--focal-length":
+                    //Same units as the focal length slider
+                    focalLength = Integer.parseInt(value) * 10000;
+                    break;
+                case "--size":
+                    String[] size = value.toLowerCase().split("x");
+                    if (size.length != 2) {
+                        throw new IllegalArgumentException("Size should be WIDTHxHEIGHT, not " + value);
+                    }
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                case "--faces":
+                    referenceFaces = value.split(",");
+                    if (referenceFaces.length != 3) {
+                        throw new IllegalArgumentException("Three reference faces are needed, not " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (width < 1 || height < 1 || framesPerKeyframe < 1 || framesPerSecond < 1) {
+            throw new IllegalArgumentException("Size, frames and fps must be at least 1");
+        }
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("Quality must be between 0 and 1");
+        }
+    }
+
+    /**
+     * Export the animation
+     * @param output - AVI file if it ends in .avi, otherwise directory to write frame_00000.png... to
+     * @throws IOException if keyframes cannot be read or output cannot be written
+     */
+    void export(String output) throws IOException {
+        List<BatchRenderer.Job> keyframes = readKeyframes();
+        int frameCount = (keyframes.size() - 1) * framesPerKeyframe + 1;
+
+        long start = System.nanoTime();
+        parser = new FileParser("data/mesh.csv", "data/sh_ev.csv", "data/tx_ev.csv", "000");
+        for (String face : referenceFaces) {
+            references.add(parser.loadFace(face));
+        }
+
+        Mesh mesh = parser.getMesh();
+        for (int i = 0; i < BUFFERS; i++) {
+            freeFaces.add(new Face(mesh, new float[mesh.vertexCount * 3], new float[mesh.vertexCount * 3]));
+            freeImages.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+
+        Sink sink = output.toLowerCase().endsWith(".avi") ? aviSink(output) : pngSink(new File(output));
+        long loaded = System.nanoTime();
+
+        BatchRenderer.daemonThreads("Synthesiser").newThread(new Runnable() {
+            public void run() {
+                synthesise(keyframes, frameCount);
+            }
+        }).start();
+        BatchRenderer.daemonThreads("Rasterizer").newThread(new Runnable() {
+            public void run() {
+                rasterize();
+            }
+        }).start();
+
+        //Encode on this thread
+        int written = 0;
+        try {
+            BufferedImage frame;
+            while ((frame = rasterized.take()) != END_OF_IMAGES) {
+                sink.write(frame);
+                freeImages.add(frame);
+                written++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sink.close();
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalArgumentException("Could not export animation: " + failure.get(), failure.get());
+        }
+
+        double seconds = (System.nanoTime() - loaded) / 1e9;
+        System.out.printf("Loaded model in %.2f s%n", (loaded - start) / 1e9);
+        System.out.printf("Exported %d frames to %s in %.2f s: %.1f frames/s%n", written, output, seconds,
+                written / seconds);
+    }
+
+    /**
+     * @return keyframes from the keyframe file, or the corners of the triangle and back to the first
+     */
+    private List<BatchRenderer.Job> readKeyframes() throws IOException {
+        if (keyframeFile == null) {
+            ArrayList<BatchRenderer.Job> corners = new ArrayList<>();
+            corners.add(new BatchRenderer.Job(0, new double[] {1, 0, 0}, null));
+            corners.add(new BatchRenderer.Job(1, new double[] {0, 1, 0}, null));
+            corners.add(new BatchRenderer.Job(2, new double[] {0, 0, 1}, null));
+            corners.add(new BatchRenderer.Job(3, new double[] {1, 0, 0}, null));
+            return corners;
+        }
+
+        List<BatchRenderer.Job> keyframes = BatchRenderer.readJobs(keyframeFile);
+        if (keyframes.size() < 2) {
+            throw new IllegalArgumentException(keyframeFile + " needs at least two keyframes");
+        }
+        for (BatchRenderer.Job keyframe : keyframes) {
+            if ((keyframe.barycentric == null) != (keyframes.get(0).barycentric == null)) {
+                throw new IllegalArgumentException(
+                        "Keyframes must all be barycentric weights or all be component weights");
+            }
+        }
+        return keyframes;
+    }
+
+    /**
+     * First stage: synthesise the face of each frame into a free face
+     * @param keyframes - faces to morph between
+     * @param frameCount - number of frames
+     */
+    private void synthesise(List<BatchRenderer.Job> keyframes, int frameCount) {
+        try {
+            for (int frame = 0; frame < frameCount; frame++) {
+                Face face = freeFaces.take();
+                BatchRenderer.synthesize(parser, references, interpolate(keyframes, frame), face);
+                synthesised.put(face);
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            synthesised.add(END_OF_FACES);
+        }
+    }
+
+    /**
+     * Second stage: rasterize each synthesised face, then copy the frame into a free image to be encoded
+     */
+    private void rasterize() {
+        try {
+            Rasterizer rasterizer = new Rasterizer(width, height);
+            Face face;
+            while ((face = synthesised.take()) != END_OF_FACES) {
+                BatchRenderer.draw(face, rasterizer, shading, projection, focalLength);
+                freeFaces.put(face);
+
+                BufferedImage image = freeImages.take();
+                int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                System.arraycopy(rasterizer.pixels, 0, pixels, 0, pixels.length);
+                rasterized.put(image);
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            rasterized.add(END_OF_IMAGES);
+        }
+    }
+
+    /**
+     * Weights of a frame, interpolated linearly between the keyframes either side of it
+     * @param keyframes - faces to morph between
+     * @param frame - number of frame
+     * @return weights of frame
+     */
+    private BatchRenderer.Job interpolate(List<BatchRenderer.Job> keyframes, int frame) {
+        int segment = Math.min(frame / framesPerKeyframe, keyframes.size() - 2);
+        double t = (double) (frame - segment * framesPerKeyframe) / framesPerKeyframe;
+        BatchRenderer.Job from = keyframes.get(segment);
+        BatchRenderer.Job to = keyframes.get(segment + 1);
+
+        if (from.barycentric != null) {
+            double[] weights = new double[3];
+            for (int i = 0; i < 3; i++) {
+                weights[i] = (1 - t) * from.barycentric[i] + t * to.barycentric[i];
+            }
+            return new BatchRenderer.Job(frame, weights, null);
+        }
+
+        //Components missing from a keyframe have weight 0 in it
+        HashMap<Integer, Double> weights = new HashMap<>();
+        for (Map.Entry<Integer, Double> weight : from.components.entrySet()) {
+            weights.put(weight.getKey(), (1 - t) * weight.getValue());
+        }
+        for (Map.Entry<Integer, Double> weight : to.components.entrySet()) {
+            weights.merge(weight.getKey(), t * weight.getValue(), Double::sum);
+        }
+        return new BatchRenderer.Job(frame, null, weights);
+    }
+
+    /**
+     * @param fileName - AVI file to write
+     * @return sink writing frames to file as Motion JPEG
+     */
+    private Sink aviSink(String fileName) throws IOException {
+        MjpegWriter writer = new MjpegWriter(fileName, width, height, framesPerSecond, quality);
+        return new Sink() {
+            public void write(BufferedImage frame) throws IOException {
+                writer.write(frame);
+            }
+
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    /**
+     * @param outDir - directory to write frames to
+     * @return sink writing each frame to a numbered PNG file
+     */
+    private Sink pngSink(File outDir) throws IOException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Cannot create " + outDir);
+        }
+
+        int[] count = {0};
+        return new Sink() {
+            public void write(BufferedImage frame) throws IOException {
+                ImageIO.write(frame, "png", new File(outDir, String.format("frame_%05d.png", count[0]++)));
+            }
+
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Synthesises faces from the morphable model:
+ * face = average + sum over components i of (weight i * EV i * component i)
+ * Components are loaded the first time they are given a non zero weight and kept in a bounded cache.
+ */
+public class MorphableModel {
+    //Default number of components kept in memory (each is about 1.3 MB)
+    static final int DEFAULT_CACHE_SIZE = 32;
+
+    //Number of values accumulated per block, small enough for the block of every component to stay in cache,
+    //and a multiple of 3 so each block holds whole vertices
+    private static final int BLOCK_SIZE = 4095;
+
+    //Loads the average face and components
+    private final FileParser parser;
+    //Maximum number of components kept in memory
+    private final int cacheSize;
+
+    //Average shape and texture
+    private float[] averageShape;
+    private float[] averageTexture;
+
+    //Loaded components by file number, least recently used first
+    private final LinkedHashMap<Integer, Component> components;
+
+    /**
+     * Unweighted shape and texture of a component
+     */
+    static class Component {
+        final float[] shape;
+        final float[] texture;
+
+        Component(float[] shape, float[] texture) {
+            this.shape = shape;
+            this.texture = texture;
+        }
+    }
+
+    /**
+     * @param parser - to load components with
+     */
+    MorphableModel(FileParser parser) {
+        this(parser, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param parser - to load components with
+     * @param cacheSize - maximum number of components to keep in memory
+     */
+    MorphableModel(FileParser parser, int cacheSize) {
+        this.parser = parser;
+        this.cacheSize = cacheSize;
+        this.components = new LinkedHashMap<Integer, Component>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Component> eldest) {
+                return size() > MorphableModel.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Synthesise a normalised face from the weights of any subset of components
+     * @param weights - weight of each component by file number, components without a weight are not used
+     * @return synthesised face
+     * @throws UncheckedIOException if the average face or a weighted component cannot be read
+     */
+    Face synthesize(Map<Integer, Double> weights) {
+        Mesh mesh = parser.getMesh();
+        float[] positions = new float[mesh.vertexCount * 3];
+        float[] colours = new float[mesh.vertexCount * 3];
+
+        float[] bounds = synthesize(weights, positions, colours);
+
+        Metrics.Span span = Metrics.begin(Stage.NORMALISE);
+        FileParser.normalise(positions, bounds);
+        span.end();
+
+        return new Face(mesh, positions, colours);
+    }
+
+    /**
+     * Synthesise the (unnormalised) shape and texture of a face into existing arrays
+     * @param weights - weight of each component by file number
+     * @param positions - to write x, y, z of each vertex to
+     * @param colours - to write r, g, b of each vertex to
+     * @return bounds of positions, to normalise them with
+     * @throws UncheckedIOException if the average face or a weighted component cannot be read
+     */
+    float[] synthesize(Map<Integer, Double> weights, float[] positions, float[] colours) {
+        loadAverage();
+
+        //Components with non zero weight and the scale to apply to each
+        ArrayList<float[]> shapes = new ArrayList<>();
+        ArrayList<float[]> textures = new ArrayList<>();
+        ArrayList<Float> shapeScales = new ArrayList<>();
+        ArrayList<Float> textureScales = new ArrayList<>();
+
+        for (Map.Entry<Integer, Double> weight : weights.entrySet()) {
+            int n = weight.getKey();
+            double w = weight.getValue();
+
+            if (w == 0) {
+                continue;
+            }
+
+            if (n < 0 || n >= parser.getComponentCount()) {
+                throw new IllegalArgumentException("No EV for component " + n
+                        + " (model has " + parser.getComponentCount() + ")");
+            }
+
+            Component component = getComponent(n);
+            shapes.add(component.shape);
+            textures.add(component.texture);
+            shapeScales.add((float) (w * parser.getShapeEV(n)));
+            textureScales.add((float) (w * parser.getTextureEV(n)));
+        }
+
+        Metrics.Span span = Metrics.begin(Stage.SYNTHESIZE);
+        float[] bounds = accumulateBounds(positions, averageShape, shapes, shapeScales);
+        accumulate(colours, averageTexture, textures, textureScales);
+        span.end();
+        return bounds;
+    }
+
+    /**
+     * Sets out to mean + sum of scale i * basis i, in parallel over blocks of values.
+     * Each block is finished for every component before moving on, so the output block stays in cache.
+     * @param out - to write to
+     * @param mean - average values
+     * @param bases - components to add
+     * @param scales - scale of each component
+     */
+    static void accumulate(float[] out, float[] mean, ArrayList<float[]> bases, ArrayList<Float> scales) {
+        accumulate(out, mean, bases, scales, null);
+    }
+
+    /**
+     * Sets positions to mean + sum of scale i * basis i as accumulate does, finding their bounds in the same pass
+     * @param out - x, y, z of each vertex to write to
+     * @param mean - average positions
+     * @param bases - components to add
+     * @param scales - scale of each component
+     * @return min x, y, z then max x, y, z of out (including the origin), as FileParser.bounds gives
+     */
+    static float[] accumulateBounds(float[] out, float[] mean, ArrayList<float[]> bases, ArrayList<Float> scales) {
+        float[][] blockBounds = new float[(out.length + BLOCK_SIZE - 1) / BLOCK_SIZE][6];
+        accumulate(out, mean, bases, scales, blockBounds);
+
+        float[] bounds = new float[6];
+        for (float[] block : blockBounds) {
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(bounds[k], block[k]);
+                bounds[k + 3] = Math.max(bounds[k + 3], block[k + 3]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @param blockBounds - to write the bounds of each block to while it is in cache, or null
+     */
+    private static void accumulate(float[] out, float[] mean, ArrayList<float[]> bases, ArrayList<Float> scales,
+                                   float[][] blockBounds) {
+        //Unbox once rather than per block, with the mean as the first array weighted 1
+        float[][] arrays = new float[bases.size() + 1][];
+        float[] weights = new float[bases.size() + 1];
+        arrays[0] = mean;
+        weights[0] = 1;
+        for (int c = 0; c < bases.size(); c++) {
+            arrays[c + 1] = bases.get(c);
+            weights[c + 1] = scales.get(c);
+        }
+
+        weightedSum(out, arrays, weights, blockBounds);
+    }
+
+    /**
+     * Sets out to the weighted sum of arrays, in parallel over blocks of values so it scales with the number of
+     * cores. Each block is finished for every array before moving on, so the output block stays in cache
+     * @param out - to write to
+     * @param arrays - arrays to sum, at least one
+     * @param weights - weight of each array
+     * @param blockBounds - to write the bounds of each block of x, y, z values to while it is in cache, or null
+     */
+    static void weightedSum(float[] out, float[][] arrays, float[] weights, float[][] blockBounds) {
+        int blocks = (out.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            int start = block * BLOCK_SIZE;
+            int end = Math.min(start + BLOCK_SIZE, out.length);
+
+            Kernels.SELECTED.weightedSum(out, arrays, weights, start, end);
+
+            //Block is still in cache, so its bounds cost no extra pass over memory
+            if (blockBounds != null) {
+                FileParser.bounds(out, start, end, blockBounds[block]);
+            }
+        });
+    }
+
+    /**
+     * Get a component, loading it if it is not in the cache
+     * @param n - file number of component
+     * @return component
+     * @throws UncheckedIOException if the component's files cannot be read
+     */
+    Component getComponent(int n) {
+        synchronized (components) {
+            Component component = components.get(n);
+            if (component != null) {
+                return component;
+            }
+        }
+
+        //Load outside the lock so other components can be read from the cache meanwhile
+        Component component;
+        try {
+            component = parser.loadComponent(n);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load component " + n, e);
+        }
+
+        synchronized (components) {
+            components.put(n, component);
+        }
+        return component;
+    }
+
+    /**
+     * Load the average face if it has not been loaded
+     * @throws UncheckedIOException if the average face's files cannot be read, in which case it is loaded again
+     *                              the next time it is needed
+     */
+    synchronized void loadAverage() {
+        if (averageShape != null) {
+            return;
+        }
+
+        Component average;
+        try {
+            average = parser.loadComponent(parser.getAverageFace());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load average face " + parser.getAverageFace(), e);
+        }
+        averageShape = average.shape;
+        averageTexture = average.texture;
+    }
+}
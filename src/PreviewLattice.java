@@ -0,0 +1,300 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Images of the synthetic face at the points of a lattice over the weight triangle, rendered in the background so a
+ * preview of any point can be shown at once while the exact face is drawn.
+ * Point (i, j) of a lattice with n subdivisions has weights (i / n, j / n, 1 - (i + j) / n). A preview is the three
+ * images at the corners of the lattice cell containing the weights, blended by the weights' position in the cell,
+ * or the nearest image rendered so far if the cell is not finished.
+ * Images are stored at a fraction of the rendered size, and the lattice is as fine as the memory budget allows.
+ * The lattice is for one set of render settings, and is rendered again when previews are asked for with others
+ */
+public class PreviewLattice {
+    //Images are stored at 1 / DOWNSCALE of the size they are rendered at, so more points fit in the budget
+    static final int DOWNSCALE = 2;
+    //Finest lattice rendered, however large the budget
+    private static final int MAX_SUBDIVISIONS = 16;
+
+    /**
+     * Settings a lattice is rendered with
+     */
+    static final class Settings {
+        final Shading shading;
+        final Projection projection;
+        final int focalLength;
+        final Backend backend;
+
+        Settings(Shading shading, Projection projection, int focalLength, Backend backend) {
+            this.shading = shading;
+            this.projection = projection;
+            //Focal length only changes the image in perspective
+            this.focalLength = (projection == Projection.PERSPECTIVE) ? focalLength : 0;
+            this.backend = backend;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Settings)) {
+                return false;
+            }
+            Settings settings = (Settings) other;
+            return shading == settings.shading && projection == settings.projection
+                    && focalLength == settings.focalLength && backend == settings.backend;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(shading, projection, focalLength, backend);
+        }
+    }
+
+    /**
+     * Draws a face, as it is drawn in the synthetic face's window
+     */
+    interface Drawer {
+        /**
+         * @param face - to draw
+         * @param image - to draw face into
+         * @param rasterizer - software renderer the size of image, for the drawer to use if it needs one
+         * @param settings - to draw face with
+         */
+        void draw(Face face, BufferedImage image, Rasterizer rasterizer, Settings settings);
+    }
+
+    /**
+     * Images of one lattice, filled in as they are rendered
+     */
+    private static final class Lattice {
+        final Settings settings;
+        final int subdivisions;
+        //Image of point (i, j) at i * (subdivisions + 1) + j, null until rendered. Images are drawn on the preview
+        //thread and read on the event dispatch thread, so they are published through the array
+        final AtomicReferenceArray<BufferedImage> images;
+
+        Lattice(Settings settings, int subdivisions) {
+            this.settings = settings;
+            this.subdivisions = subdivisions;
+            this.images = new AtomicReferenceArray<>((subdivisions + 1) * (subdivisions + 1));
+        }
+    }
+
+    //Reference faces blended at each point, and how to draw them
+    private final ArrayList<Face> faces;
+    private final Drawer drawer;
+    //Size faces are rendered at
+    private final int width;
+    private final int height;
+    //Number of lattice subdivisions, 0 if the budget cannot hold even the corners
+    private final int subdivisions;
+
+    //Lattice being rendered or finished, replaced when previews are asked for with other settings
+    private volatile Lattice lattice;
+    //Incremented whenever a lattice is started, so an older one stops rendering
+    private final AtomicLong generation = new AtomicLong();
+
+    //Preview blended from lattice images, reused for every preview (only used on the event dispatch thread)
+    private BufferedImage preview;
+
+    /**
+     * @param faces - reference faces
+     * @param drawer - to draw faces with
+     * @param width - of rendered faces
+     * @param height - of rendered faces
+     * @param budget - bytes of images which may be kept
+     */
+    PreviewLattice(ArrayList<Face> faces, Drawer drawer, int width, int height, long budget) {
+        this.faces = faces;
+        this.drawer = drawer;
+        this.width = width;
+        this.height = height;
+
+        //Largest lattice whose (n + 1)(n + 2) / 2 points fit in the budget
+        long imageBytes = 4L * (width / DOWNSCALE) * (height / DOWNSCALE);
+        int n = 0;
+        while (n < MAX_SUBDIVISIONS && (long) (n + 2) * (n + 3) / 2 * imageBytes <= budget) {
+            n++;
+        }
+        this.subdivisions = n;
+    }
+
+    /**
+     * @return whether the budget is large enough for previews
+     */
+    boolean isEnabled() {
+        return subdivisions > 0;
+    }
+
+    /**
+     * Start rendering a lattice in the background, unless one with these settings has already been started
+     * @param settings - to render faces with
+     */
+    synchronized void build(Settings settings) {
+        if (!isEnabled() || (lattice != null && lattice.settings.equals(settings))) {
+            return;
+        }
+
+        Lattice started = new Lattice(settings, subdivisions);
+        lattice = started;
+        long building = generation.incrementAndGet();
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                render(started, building);
+            }
+        }, "Preview lattice");
+        thread.setDaemon(true);
+        //Previews should never slow down the faces being looked at
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Render the images of a lattice, corners of the triangle first, until a newer lattice is started
+     */
+    private void render(Lattice started, long building) {
+        int n = started.subdivisions;
+        Face face = new Face(faces, new ArrayList<>(Arrays.asList(1.0, 0.0, 0.0)));
+        Rasterizer rasterizer = new Rasterizer(width, height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        ArrayList<int[]> points = new ArrayList<>();
+        points.add(new int[] {n, 0});
+        points.add(new int[] {0, n});
+        points.add(new int[] {0, 0});
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; i + j <= n; j++) {
+                if (i != n && j != n && i + j != 0) {
+                    points.add(new int[] {i, j});
+                }
+            }
+        }
+
+        for (int[] point : points) {
+            if (generation.get() != building) {
+                return;
+            }
+
+            int i = point[0], j = point[1];
+            face.blend(faces, new double[] {(double) i / n, (double) j / n, (double) (n - i - j) / n});
+            drawer.draw(face, image, rasterizer, started.settings);
+
+            BufferedImage small = new BufferedImage(width / DOWNSCALE, height / DOWNSCALE,
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics2D = small.createGraphics();
+            graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics2D.drawImage(image, 0, 0, small.getWidth(), small.getHeight(), null);
+            graphics2D.dispose();
+
+            started.images.set(i * (n + 1) + j, small);
+        }
+    }
+
+    /**
+     * Preview of a face, blended from the images of the lattice cell containing its weights. If the lattice has
+     * other settings, one with these settings is started and no preview is given until it has rendered some images
+     * @param weights - weights of the three reference faces
+     * @param settings - face is drawn with
+     * @return preview at 1 / DOWNSCALE of the rendered size (reused for the next preview), or null if there is none
+     */
+    BufferedImage preview(double[] weights, Settings settings) {
+        build(settings);
+        Lattice current = lattice;
+        if (current == null || !current.settings.equals(settings)) {
+            return null;
+        }
+
+        //Position in lattice, kept within the triangle
+        int n = current.subdivisions;
+        double a = Math.max(0, weights[0]), b = Math.max(0, weights[1]), c = Math.max(0, weights[2]);
+        double sum = Math.max(a + b + c, 1e-9);
+        double u = a / sum * n, v = b / sum * n;
+        int i = Math.min((int) u, n - 1), j = Math.min((int) v, n - 1);
+        double fu = u - i, fv = v - j;
+
+        //Corners of the cell containing the point, and the point's weight of each
+        int[] cornerI, cornerJ;
+        double[] cornerWeights;
+        if (fu + fv <= 1) {
+            cornerI = new int[] {i, i + 1, i};
+            cornerJ = new int[] {j, j, j + 1};
+            cornerWeights = new double[] {1 - fu - fv, fu, fv};
+        } else {
+            cornerI = new int[] {i + 1, i, i + 1};
+            cornerJ = new int[] {j + 1, j + 1, j};
+            cornerWeights = new double[] {fu + fv - 1, 1 - fu, 1 - fv};
+        }
+
+        BufferedImage[] corners = new BufferedImage[3];
+        boolean finished = true;
+        for (int k = 0; k < 3; k++) {
+            //A corner outside the triangle can only have no weight, so any image will do
+            int corner = (cornerI[k] + cornerJ[k] <= n) ? k : 0;
+            corners[k] = current.images.get(cornerI[corner] * (n + 1) + cornerJ[corner]);
+            finished &= corners[k] != null;
+        }
+
+        if (!finished) {
+            return nearest(current, u, v);
+        }
+        return blend(corners, cornerWeights);
+    }
+
+    /**
+     * @return image of the rendered point nearest to (u, v), or null if none have been rendered
+     */
+    private static BufferedImage nearest(Lattice current, double u, double v) {
+        int n = current.subdivisions;
+        BufferedImage nearest = null;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; i + j <= n; j++) {
+                BufferedImage image = current.images.get(i * (n + 1) + j);
+                double distance = (i - u) * (i - u) + (j - v) * (j - v);
+                if (image != null && distance < nearestDistance) {
+                    nearest = image;
+                    nearestDistance = distance;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Cross fade three images
+     * @param images - to blend
+     * @param weights - of each image, summing to 1
+     * @return blended image
+     */
+    private BufferedImage blend(BufferedImage[] images, double[] weights) {
+        int w = images[0].getWidth(), h = images[0].getHeight();
+        if (preview == null || preview.getWidth() != w || preview.getHeight() != h) {
+            preview = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+
+        int[] out = ((DataBufferInt) preview.getRaster().getDataBuffer()).getData();
+        int[] p0 = ((DataBufferInt) images[0].getRaster().getDataBuffer()).getData();
+        int[] p1 = ((DataBufferInt) images[1].getRaster().getDataBuffer()).getData();
+        int[] p2 = ((DataBufferInt) images[2].getRaster().getDataBuffer()).getData();
+
+        //Weights in 8.8 fixed point
+        int w0 = (int) Math.round(weights[0] * 256);
+        int w1 = Math.min(256 - w0, (int) Math.round(weights[1] * 256));
+        int w2 = 256 - w0 - w1;
+        for (int p = 0; p < out.length; p++) {
+            int a = p0[p], b = p1[p], c = p2[p];
+            int red = ((a >> 16 & 0xff) * w0 + (b >> 16 & 0xff) * w1 + (c >> 16 & 0xff) * w2) >> 8;
+            int green = ((a >> 8 & 0xff) * w0 + (b >> 8 & 0xff) * w1 + (c >> 8 & 0xff) * w2) >> 8;
+            int blue = ((a & 0xff) * w0 + (b & 0xff) * w1 + (c & 0xff) * w2) >> 8;
+            out[p] = (red << 16) | (green << 8) | blue;
+        }
+        return preview;
+    }
+}
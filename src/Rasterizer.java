@@ -0,0 +1,436 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Software renderer which fills triangles straight into the pixels of a BufferedImage,
+ * using a depth buffer rather than sorting triangles.
+ *
+ * Vertices are snapped to fixed point coordinates with SUBPIXEL_BITS bits of sub pixel precision, and a pixel is
+ * filled if its centre is inside all three edges of the triangle. Pixel centres exactly on an edge are only filled
+ * for top and left edges, so pixels on an edge shared by two triangles are filled exactly once.
+ *
+ * When given a thread pool, triangles are sorted into bins of TILE_SIZE x TILE_SIZE pixel tiles and the tiles
+ * are rasterized in parallel. Each tile only writes to its own pixels, so no locking is needed.
+ */
+public class Rasterizer {
+    //Bits of sub pixel precision in fixed point coordinates
+    static final int SUBPIXEL_BITS = 4;
+    static final int SUBPIXEL_SCALE = 1 << SUBPIXEL_BITS;
+    //Offset of a pixel's centre from its corner in fixed point
+    private static final int HALF_PIXEL = SUBPIXEL_SCALE / 2;
+
+    //Width and height of tiles in pixels
+    static final int TILE_SIZE = 64;
+    //Number of tiles rasterized by one task before it stops splitting
+    private static final int TILES_PER_TASK = 2;
+
+    //Size of image
+    final int width;
+    final int height;
+
+    //Image rendered to, and its pixels and depths
+    final BufferedImage image;
+    final int[] pixels;
+    final float[] depth;
+
+    //Triangles of the face being drawn, reused between frames
+    final TriangleBatch batch = new TriangleBatch();
+
+    //Pool to rasterize tiles with, or null to rasterize on the calling thread
+    private ForkJoinPool pool;
+
+    //Number of tiles across and down the image
+    private final int tilesX;
+    private final int tilesY;
+    //Position of each tile's first triangle in bins (with one extra entry marking the end of the last tile)
+    private final int[] tileStart;
+    //Next free position in each tile's bin while binning
+    private final int[] tileNext;
+    //Tiles overlapped by each triangle being binned (first and last tile across and down)
+    private int[] tileRanges = new int[0];
+    //Triangles overlapping each tile, tile by tile
+    private int[] bins = new int[0];
+
+    /**
+     * @param width - of image
+     * @param height - of image
+     */
+    Rasterizer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.depth = new float[width * height];
+
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileStart = new int[tilesX * tilesY + 1];
+        this.tileNext = new int[tilesX * tilesY];
+    }
+
+    /**
+     * @param pool - to rasterize tiles in parallel with, or null to rasterize on the calling thread
+     */
+    void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Fill image with a colour and reset the depth of every pixel
+     * @param rgb - background colour
+     */
+    void clear(int rgb) {
+        Arrays.fill(pixels, rgb);
+        Arrays.fill(depth, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Draw every triangle in a batch
+     * @param batch - triangles in screen space
+     * @param shading - shading type (flat or gouraud)
+     */
+    void draw(TriangleBatch batch, Shading shading) {
+        if (pool == null || pool.getParallelism() == 1) {
+            drawTriangles(batch, shading, batch.triangles, 0, batch.triangleCount, 0, 0, width - 1, height - 1);
+            return;
+        }
+
+        bin(batch);
+        pool.invoke(new TileTask(batch, shading, 0, tilesX * tilesY));
+    }
+
+    /**
+     * Sort triangles into the bins of the tiles their bounding boxes overlap
+     * @param batch - triangles in screen space
+     */
+    private void bin(TriangleBatch batch) {
+        if (tileRanges.length < batch.triangleCount * 4) {
+            tileRanges = new int[batch.triangleCount * 4];
+        }
+        Arrays.fill(tileStart, 0);
+
+        //Find tiles overlapped by each triangle, and count triangles overlapping each tile
+        int total = 0;
+        for (int i = 0; i < batch.triangleCount; i++) {
+            int t = batch.triangles[i];
+            int v0 = batch.indices[t * 3], v1 = batch.indices[t * 3 + 1], v2 = batch.indices[t * 3 + 2];
+
+            float minX = Math.min(batch.screenX[v0], Math.min(batch.screenX[v1], batch.screenX[v2]));
+            float maxX = Math.max(batch.screenX[v0], Math.max(batch.screenX[v1], batch.screenX[v2]));
+            float minY = Math.min(batch.screenY[v0], Math.min(batch.screenY[v1], batch.screenY[v2]));
+            float maxY = Math.max(batch.screenY[v0], Math.max(batch.screenY[v1], batch.screenY[v2]));
+
+            //Triangles entirely outside the image overlap no tiles
+            if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) {
+                tileRanges[i * 4] = 0;
+                tileRanges[i * 4 + 1] = -1;
+                continue;
+            }
+
+            int firstX = tile(minX, tilesX);
+            int lastX = tile(maxX, tilesX);
+            int firstY = tile(minY, tilesY);
+            int lastY = tile(maxY, tilesY);
+            tileRanges[i * 4] = firstX;
+            tileRanges[i * 4 + 1] = lastX;
+            tileRanges[i * 4 + 2] = firstY;
+            tileRanges[i * 4 + 3] = lastY;
+
+            for (int ty = firstY; ty <= lastY; ty++) {
+                for (int tx = firstX; tx <= lastX; tx++) {
+                    tileStart[ty * tilesX + tx + 1]++;
+                }
+            }
+            total += (lastX - firstX + 1) * (lastY - firstY + 1);
+        }
+
+        //Convert counts to start positions
+        for (int tile = 1; tile < tileStart.length; tile++) {
+            tileStart[tile] += tileStart[tile - 1];
+        }
+        System.arraycopy(tileStart, 0, tileNext, 0, tileNext.length);
+
+        if (bins.length < total) {
+            bins = new int[total];
+        }
+
+        //Add each triangle to the bins of the tiles it overlaps, keeping triangles in batch order
+        for (int i = 0; i < batch.triangleCount; i++) {
+            for (int ty = tileRanges[i * 4 + 2]; ty <= tileRanges[i * 4 + 3]; ty++) {
+                for (int tx = tileRanges[i * 4]; tx <= tileRanges[i * 4 + 1]; tx++) {
+                    bins[tileNext[ty * tilesX + tx]++] = batch.triangles[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param coordinate - x or y screen coordinate
+     * @param tiles - number of tiles in that direction
+     * @return tile containing coordinate, clamped to the image
+     */
+    private static int tile(float coordinate, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor(coordinate) / TILE_SIZE));
+    }
+
+    /**
+     * Rasterizes a range of tiles, splitting the range between threads until it is small
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TriangleBatch batch;
+        private final Shading shading;
+        //Range of tiles to rasterize, from first up to (not including) last
+        private final int first;
+        private final int last;
+
+        TileTask(TriangleBatch batch, Shading shading, int first, int last) {
+            this.batch = batch;
+            this.shading = shading;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first > TILES_PER_TASK) {
+                int middle = (first + last) / 2;
+                invokeAll(new TileTask(batch, shading, first, middle), new TileTask(batch, shading, middle, last));
+                return;
+            }
+
+            for (int tile = first; tile < last; tile++) {
+                int minX = (tile % tilesX) * TILE_SIZE;
+                int minY = (tile / tilesX) * TILE_SIZE;
+                drawTriangles(batch, shading, bins, tileStart[tile], tileStart[tile + 1], minX, minY,
+                        Math.min(minX + TILE_SIZE, width) - 1, Math.min(minY + TILE_SIZE, height) - 1);
+            }
+        }
+    }
+
+    /**
+     * Draw a list of triangles, only filling pixels within a clipping rectangle
+     * @param batch - triangles in screen space
+     * @param shading - shading type (flat or gouraud)
+     * @param triangles - triangle numbers to draw
+     * @param from - position of first triangle in list
+     * @param to - position after last triangle in list
+     * @param clipMinX - first column which may be filled
+     * @param clipMinY - first row which may be filled
+     * @param clipMaxX - last column which may be filled
+     * @param clipMaxY - last row which may be filled
+     */
+    private void drawTriangles(TriangleBatch batch, Shading shading, int[] triangles, int from, int to,
+                               int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        int[] indices = batch.indices;
+        boolean gouraud = shading == Shading.GOURAUD;
+
+        for (int i = from; i < to; i++) {
+            int t = triangles[i];
+            fillTriangle(batch, indices[t * 3], indices[t * 3 + 1], indices[t * 3 + 2], gouraud,
+                    clipMinX, clipMinY, clipMaxX, clipMaxY);
+        }
+    }
+
+    /**
+     * Fill a triangle, either with the average colour of its vertices (flat) or with the colours of its vertices
+     * interpolated across every pixel (Gouraud). Pixels are only filled where the triangle is nearer than what
+     * has already been drawn (nearer means greater z, as in the painter's algorithm ordering).
+     *
+     * Depth and colour are planes over the triangle, so each is stepped with a constant increment per pixel
+     * derived from the same edge functions used to test coverage.
+     * @param batch - triangles in screen space
+     * @param v0 - index of first vertex of triangle
+     * @param v1 - index of second vertex of triangle
+     * @param v2 - index of third vertex of triangle
+     * @param gouraud - whether to interpolate vertex colours rather than fill with their average
+     * @param clipMinX - first column which may be filled
+     * @param clipMinY - first row which may be filled
+     * @param clipMaxX - last column which may be filled
+     * @param clipMaxY - last row which may be filled
+     */
+    private void fillTriangle(TriangleBatch batch, int v0, int v1, int v2, boolean gouraud,
+                              int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        //Snap vertices to fixed point
+        long fx0 = Math.round(batch.screenX[v0] * SUBPIXEL_SCALE);
+        long fy0 = Math.round(batch.screenY[v0] * SUBPIXEL_SCALE);
+        long fx1 = Math.round(batch.screenX[v1] * SUBPIXEL_SCALE);
+        long fy1 = Math.round(batch.screenY[v1] * SUBPIXEL_SCALE);
+        long fx2 = Math.round(batch.screenX[v2] * SUBPIXEL_SCALE);
+        long fy2 = Math.round(batch.screenY[v2] * SUBPIXEL_SCALE);
+
+        //Twice the signed area of the triangle
+        long area = (fx1 - fx0) * (fy2 - fy0) - (fy1 - fy0) * (fx2 - fx0);
+        if (area == 0) {
+            return;
+        }
+
+        //Make winding consistent so that inside is where every edge function is positive
+        if (area < 0) {
+            long tx = fx1, ty = fy1;
+            int tv = v1;
+            fx1 = fx2;
+            fy1 = fy2;
+            v1 = v2;
+            fx2 = tx;
+            fy2 = ty;
+            v2 = tv;
+            area = -area;
+        }
+
+        //Bounding box of pixels whose centres may be covered
+        int boundsX = (int) ((Math.min(fx0, Math.min(fx1, fx2)) - HALF_PIXEL + SUBPIXEL_SCALE - 1) >> SUBPIXEL_BITS);
+        int boundsY = (int) ((Math.min(fy0, Math.min(fy1, fy2)) - HALF_PIXEL + SUBPIXEL_SCALE - 1) >> SUBPIXEL_BITS);
+
+        //Clipped to the clipping rectangle
+        int minX = Math.max(clipMinX, boundsX);
+        int maxX = (int) Math.min(clipMaxX, (Math.max(fx0, Math.max(fx1, fx2)) - HALF_PIXEL) >> SUBPIXEL_BITS);
+        int minY = Math.max(clipMinY, boundsY);
+        int maxY = (int) Math.min(clipMaxY, (Math.max(fy0, Math.max(fy1, fy2)) - HALF_PIXEL) >> SUBPIXEL_BITS);
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        //Change in edge functions per pixel step in x and y. Edge i is opposite vertex i
+        long a0 = (fy1 - fy2) << SUBPIXEL_BITS, b0 = (fx2 - fx1) << SUBPIXEL_BITS;
+        long a1 = (fy2 - fy0) << SUBPIXEL_BITS, b1 = (fx0 - fx2) << SUBPIXEL_BITS;
+        long a2 = (fy0 - fy1) << SUBPIXEL_BITS, b2 = (fx1 - fx0) << SUBPIXEL_BITS;
+
+        //Pixels from the unclipped bounding box to the first pixel to draw
+        int dx = minX - boundsX, dy = minY - boundsY;
+
+        //Edge functions at centre of the first pixel of the unclipped bounding box
+        long px = ((long) boundsX << SUBPIXEL_BITS) + HALF_PIXEL;
+        long py = ((long) boundsY << SUBPIXEL_BITS) + HALF_PIXEL;
+        long e0 = edge(fx1, fy1, fx2, fy2, px, py);
+        long e1 = edge(fx2, fy2, fx0, fy0, px, py);
+        long e2 = edge(fx0, fy0, fx1, fy1, px, py);
+
+        //Barycentric weight of each vertex at that pixel, and their change per pixel step in x and y
+        float invArea = 1f / area;
+        float l0 = e0 * invArea, l1 = e1 * invArea, l2 = e2 * invArea;
+        float l0x = a0 * invArea, l1x = a1 * invArea, l2x = a2 * invArea;
+        float l0y = b0 * invArea, l1y = b1 * invArea, l2y = b2 * invArea;
+
+        //Colour planes in 16.16 fixed point (all steps are zero for flat shading). Planes start from the
+        //unclipped bounding box and are stepped exactly in integers, so a triangle split across tiles
+        //gets the same colours as when drawn whole
+        float[] colours = batch.colours;
+        int rRow, gRow, bRow, drdx = 0, dgdx = 0, dbdx = 0, drdy = 0, dgdy = 0, dbdy = 0;
+        if (gouraud) {
+            float r0 = channel(colours[v0 * 3]), r1 = channel(colours[v1 * 3]), r2 = channel(colours[v2 * 3]);
+            float g0 = channel(colours[v0 * 3 + 1]), g1 = channel(colours[v1 * 3 + 1]), g2 = channel(colours[v2 * 3 + 1]);
+            float c0 = channel(colours[v0 * 3 + 2]), c1 = channel(colours[v1 * 3 + 2]), c2 = channel(colours[v2 * 3 + 2]);
+
+            drdx = step(l0x * r0 + l1x * r1 + l2x * r2);
+            dgdx = step(l0x * g0 + l1x * g1 + l2x * g2);
+            dbdx = step(l0x * c0 + l1x * c1 + l2x * c2);
+            drdy = step(l0y * r0 + l1y * r1 + l2y * r2);
+            dgdy = step(l0y * g0 + l1y * g1 + l2y * g2);
+            dbdy = step(l0y * c0 + l1y * c1 + l2y * c2);
+            rRow = fixed(l0 * r0 + l1 * r1 + l2 * r2) + dx * drdx + dy * drdy;
+            gRow = fixed(l0 * g0 + l1 * g1 + l2 * g2) + dx * dgdx + dy * dgdy;
+            bRow = fixed(l0 * c0 + l1 * c1 + l2 * c2) + dx * dbdx + dy * dbdy;
+        } else {
+            rRow = fixed(channel((colours[v0 * 3] + colours[v1 * 3] + colours[v2 * 3]) / 3));
+            gRow = fixed(channel((colours[v0 * 3 + 1] + colours[v1 * 3 + 1] + colours[v2 * 3 + 1]) / 3));
+            bRow = fixed(channel((colours[v0 * 3 + 2] + colours[v1 * 3 + 2] + colours[v2 * 3 + 2]) / 3));
+        }
+
+        //Move from the unclipped bounding box to the first pixel to draw
+        e0 += dx * a0 + dy * b0;
+        e1 += dx * a1 + dy * b1;
+        e2 += dx * a2 + dy * b2;
+        long w0Row = e0 + bias(fx1, fy1, fx2, fy2);
+        long w1Row = e1 + bias(fx2, fy2, fx0, fy0);
+        long w2Row = e2 + bias(fx0, fy0, fx1, fy1);
+
+        //Depth plane
+        float z0 = batch.depth[v0], z1 = batch.depth[v1], z2 = batch.depth[v2];
+        float zRow = (e0 * z0 + e1 * z1 + e2 * z2) * invArea;
+        float dzdx = l0x * z0 + l1x * z1 + l2x * z2;
+        float dzdy = l0y * z0 + l1y * z1 + l2y * z2;
+
+        for (int y = minY; y <= maxY; y++) {
+            long w0 = w0Row, w1 = w1Row, w2 = w2Row;
+            float z = zRow;
+            int r = rRow, g = gRow, b = bRow;
+            int i = y * width + minX;
+
+            for (int x = minX; x <= maxX; x++, i++) {
+                //Inside if no edge function is negative
+                if ((w0 | w1 | w2) >= 0 && z > depth[i]) {
+                    depth[i] = z;
+                    pixels[i] = (unfixed(r) << 16) | (unfixed(g) << 8) | unfixed(b);
+                }
+
+                w0 += a0;
+                w1 += a1;
+                w2 += a2;
+                z += dzdx;
+                r += drdx;
+                g += dgdx;
+                b += dbdx;
+            }
+
+            w0Row += b0;
+            w1Row += b1;
+            w2Row += b2;
+            zRow += dzdy;
+            rRow += drdy;
+            gRow += dgdy;
+            bRow += dbdy;
+        }
+    }
+
+    /**
+     * Clamp a colour channel to 0 - 255
+     */
+    private static float channel(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Convert a colour channel to 16.16 fixed point, rounding to the nearest whole value when converted back
+     */
+    private static int fixed(float value) {
+        return (int) (value * 65536) + 32768;
+    }
+
+    /**
+     * Convert a change in colour channel per pixel to 16.16 fixed point
+     */
+    private static int step(float value) {
+        return (int) (value * 65536);
+    }
+
+    /**
+     * Convert a 16.16 fixed point colour channel to 0 - 255
+     */
+    private static int unfixed(int value) {
+        return Math.max(0, Math.min(255, value >> 16));
+    }
+
+    /**
+     * Edge function: twice the signed area of triangle (a, b, p), positive when p is to the inside of edge a to b
+     */
+    private static long edge(long ax, long ay, long bx, long by, long px, long py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    /**
+     * Top-left fill rule: points exactly on an edge are inside only if it is a top or left edge
+     * @return 0 for top and left edges, -1 (excluding points on the edge) otherwise
+     */
+    private static long bias(long ax, long ay, long bx, long by) {
+        //With this winding in y down screen space, top edges are horizontal going right and left edges go up
+        boolean top = ay == by && bx > ax;
+        boolean left = by < ay;
+        return (top || left) ? 0 : -1;
+    }
+
+}
@@ -2,7 +2,20 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -33,6 +46,8 @@ public class Rendering extends JPanel {
 
     //Button to draw the render on the display
     private JButton render = new JButton("Render");
+    //Button to blend any number of faces by weight rather than the reference faces by a point
+    private JButton blend = new JButton("Blend faces...");
 
     //Radio buttons to select the shading method
     static JRadioButton flat = new JRadioButton("Flat");
@@ -42,6 +57,15 @@ public class Rendering extends JPanel {
     static JRadioButton orthographic = new JRadioButton("Orthographic");
     static JRadioButton perspective = new JRadioButton("Perspective");
 
+    //Radio buttons to select the renderer
+    static JRadioButton java2D = new JRadioButton("Java2D");
+    static JRadioButton zBuffer = new JRadioButton("Z-buffer");
+
+    //Check box to morph the synthetic face while the mouse is dragged within the triangle
+    static JCheckBox live = new JCheckBox("Live morphing");
+    //Check box to show frame times and time taken by each stage over the synthetic face
+    static JCheckBox hud = new JCheckBox("Show metrics");
+
     //Values for slider
     static final int MIN_FOCAL_LEN = 1;
     static final int MAX_FOCAL_LEN = 25;
@@ -55,13 +79,52 @@ public class Rendering extends JPanel {
     //Stores list of reference faces loaded from files
     static ArrayList<Face> faces = new ArrayList<>();
 
-    //Synthetic face
+    //Synthetic face (only used on the render thread)
     static Face syntheticFace;
+    //Face blended into for every frame while the point is dragged with live morphing, so the drag does not allocate
+    //a face per update, and the weights last blended into it (only used on the render thread)
+    private static Face dragFace;
+    private static FaceCache.Key dragKey;
+    //Whether the point is being dragged with live morphing, so the face is only cached where the drag settles
+    private static boolean dragging;
+    //Faces loaded and blended so far, so weights seen before do not need blending again
+    static FaceCache faceCache;
+    //Weights of the reference faces in the synthetic face, reused for every update
+    static double[] weights = new double[3];
+    //Weights of faces by file number the synthetic face is blended from instead, or null to use the selected point
+    static TreeMap<Integer, Double> faceWeights;
+    //Parser faces are loaded with, once loading has finished
+    static FileParser fileParser;
 
     //Stores shading method
     static Shading shading;
     //Stores projection method
     static Projection projection;
+    //Stores rendering method
+    static Backend backend;
+
+    //Previews of the synthetic face over the triangle, rendered in the background (null if disabled)
+    static PreviewLattice previews;
+    //Default megabytes of preview images kept (-Dpreview.budget=MB, 0 to disable previews)
+    private static final long DEFAULT_PREVIEW_BUDGET = 64;
+    //Whether the synthetic face's window is showing a preview of the point under the mouse
+    private static boolean hovering;
+
+    //Fraction of the mesh's triangles kept at each level of detail
+    private static final double[] LEVEL_OF_DETAIL_FRACTIONS = {0.5, 0.25, 0.125, 0.0625};
+
+    //Diameter of the marker drawn where the user clicked
+    private static final int MARKER_SIZE = 5;
+
+    //Triangle and reference faces drawn in the main window, kept until invalidated or the window changes size
+    private BufferedImage layer;
+    private boolean layerValid;
+
+    //Draws frames of the synthetic face in the background (only for the synthetic face's window)
+    private FrameRenderer renderer;
+
+    //Software renderer for this window, recreated if the window changes size
+    private Rasterizer rasterizer;
 
     //Store file names for files to be loaded in
     static String meshFile = "data/mesh.csv";
@@ -75,16 +138,24 @@ public class Rendering extends JPanel {
     /**
      * Main function to run program,
      * used to set up user interface
-     * @param args
+     * @param args - optional file numbers of the three reference faces (001 002 003 by default)
      */
     public static void main(String[] args) {
-        //Parser to parse files
-        FileParser fileParser = new FileParser(meshFile, shEVFile, txEVFile, faceFile0);
+        //Use reference faces given on command line
+        if (args.length == 3) {
+            faceFile1 = args[0];
+            faceFile2 = args[1];
+            faceFile3 = args[2];
+        }
+
+        //Write metrics as JSON on exit if a file is given (-Dmetrics=metrics.json)
+        String metricsFile = System.getProperty("metrics");
+        if (metricsFile != null) {
+            Metrics.dumpOnExit(metricsFile);
+        }
 
-        //Load the three faces in
-        faces.add(fileParser.loadFace(faceFile1));
-        faces.add(fileParser.loadFace(faceFile2));
-        faces.add(fileParser.loadFace(faceFile3));
+        //Reference faces are filled in as they load, and drawn as placeholders until then
+        faces.addAll(Arrays.asList(null, null, null));
 
         //Create new object to represent the window to display the synthesised face in
         Rendering display = new Rendering();
@@ -95,8 +166,11 @@ public class Rendering extends JPanel {
         display.panel = new JPanel();
         display.panel.setLayout(new BoxLayout(display.panel, BoxLayout.PAGE_AXIS));
 
-        //Add buttons to panel
+        //Add buttons to panel, rendering is enabled once the reference faces have loaded
+        display.render.setEnabled(false);
         display.panel.add(display.render);
+        display.blend.setEnabled(false);
+        display.panel.add(display.blend);
 
         //Shading label
         JLabel shadingLabel = new JLabel("Shading:");
@@ -122,9 +196,33 @@ public class Rendering extends JPanel {
         display.panel.add(perspective);
         orthographic.setSelected(true);
 
-        //Sets initial values for shading mode and projeciton mode
-        shading = (flat.isSelected()) ? Shading.FLAT : Shading.GOURAUD;
-        projection = (orthographic.isSelected()) ? Projection.ORTHOGRAPHIC : Projection.PERSPECTIVE;
+        //Renderer label
+        JLabel backendLabel = new JLabel("Renderer:");
+        display.panel.add(backendLabel);
+
+        //Adds radio buttons to JPanel to select renderer
+        ButtonGroup buttonGroup2 = new ButtonGroup();
+        buttonGroup2.add(java2D);
+        buttonGroup2.add(zBuffer);
+        display.panel.add(java2D);
+        display.panel.add(zBuffer);
+        java2D.setSelected(true);
+
+        //Redraws faces with the selected renderer
+        ActionListener backendListener = new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                updateSettings();
+                display.invalidateLayer();
+                if (faceRendering != null) {
+                    requestSyntheticFrame();
+                }
+            }
+        };
+        java2D.addActionListener(backendListener);
+        zBuffer.addActionListener(backendListener);
+
+        //Sets initial values for shading mode, projeciton mode and renderer
+        updateSettings();
 
         //Label for focal length slider
         JLabel sliderLabel = new JLabel("Focal Length:");
@@ -138,6 +236,23 @@ public class Rendering extends JPanel {
         focalLengthSlider.setPaintLabels(true);
         display.panel.add(focalLengthSlider);
 
+        //Adds check box to morph the synthetic face live
+        display.panel.add(live);
+
+        //Adds check box to show metrics, redrawing the synthetic face with or without them
+        hud.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                //Stages are timed from when metrics are first shown, so the averages are not reset by hiding them
+                if (hud.isSelected()) {
+                    Metrics.setEnabled(true);
+                }
+                if (faceRendering != null) {
+                    requestSyntheticFrame();
+                }
+            }
+        });
+        display.panel.add(hud);
+
         //Specifies layout of frame
         display.frame.setTitle("3D Rendering");
         display.frame.setSize(1280, 720);
@@ -163,8 +278,134 @@ public class Rendering extends JPanel {
         display.frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         //Sets resizable to false for the window
         display.frame.setResizable(false);
+
+        //Load the model and reference faces in the background while the window is shown
+        startLoading(display);
+    }
+
+    /**
+     * Load the mesh, average face and each reference face's component concurrently on background threads.
+     * Each reference face is drawn in the main window as soon as it has loaded, and rendering is enabled once all
+     * three have
+     * @param display - main window to draw faces in
+     */
+    private static void startLoading(Rendering display) {
+        ExecutorService loader = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                BatchRenderer.daemonThreads("Loader"));
+
+        //Parser to parse files, which loads the mesh and EV files
+        CompletableFuture<FileParser> parser = CompletableFuture.supplyAsync(new Supplier<FileParser>() {
+            public FileParser get() {
+                return new FileParser(meshFile, shEVFile, txEVFile, faceFile0);
+            }
+        }, loader);
+
+        //Every face is the average face plus a component, so they load concurrently
+        CompletableFuture<Void> average = parser.thenAcceptAsync(new Consumer<FileParser>() {
+            public void accept(FileParser fileParser) {
+                fileParser.getModel().loadAverage();
+            }
+        }, loader);
+
+        String[] faceFiles = {faceFile1, faceFile2, faceFile3};
+        CompletableFuture<?>[] loaded = new CompletableFuture<?>[faceFiles.length];
+        for (int f = 0; f < faceFiles.length; f++) {
+            int index = f;
+            String faceFile = faceFiles[f];
+            CompletableFuture<Void> component = parser.thenAcceptAsync(new Consumer<FileParser>() {
+                public void accept(FileParser fileParser) {
+                    fileParser.getModel().getComponent(Integer.parseInt(faceFile));
+                }
+            }, loader);
+
+            //Show the face in its corner of the triangle as soon as it has loaded
+            loaded[f] = average.runAfterBoth(component, new Runnable() {
+                public void run() {
+                    Face face = parser.join().loadFace(faceFile);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            faces.set(index, face);
+                            display.invalidateLayer();
+                        }
+                    });
+                }
+            });
+        }
+
+        CompletableFuture.allOf(loaded).thenRun(new Runnable() {
+            public void run() {
+                FileParser loadedParser = parser.join();
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        fileParser = loadedParser;
+                        faceCache = fileParser.getFaceCache();
+                        createPreviews(display);
+                        display.render.setEnabled(true);
+                        display.blend.setEnabled(true);
+                        Metrics.recordInteractive();
+                        System.out.println(Metrics.startup());
+
+                        //Simplify the mesh in the background, faces are drawn with every triangle until it has
+                        //finished, then render previews
+                        buildLevelsOfDetail(fileParser, display);
+                    }
+                });
+                loader.shutdown();
+            }
+        }).exceptionally(new Function<Throwable, Void>() {
+            public Void apply(Throwable throwable) {
+                throwable.printStackTrace();
+                return null;
+            }
+        });
     }
 
+    /**
+     * Create the previews of the synthetic face, rendered at the size of the synthetic face's window with this
+     * window's background
+     * @param display - main window
+     */
+    private static void createPreviews(Rendering display) {
+        long budget = Long.getLong("preview.budget", DEFAULT_PREVIEW_BUDGET) * 1024 * 1024;
+        //Read on the event dispatch thread, as previews are drawn on their own thread
+        Color background = display.getBackground();
+        previews = new PreviewLattice(faces, new PreviewLattice.Drawer() {
+            public void draw(Face face, BufferedImage image, Rasterizer rasterizer,
+                             PreviewLattice.Settings settings) {
+                rasterizer.clear(background.getRGB());
+                Graphics2D graphics2D = image.createGraphics();
+                drawFace(graphics2D, face, rasterizer, background, image.getWidth(), image.getHeight(),
+                        settings.shading, settings.projection, settings.focalLength, settings.backend);
+                graphics2D.dispose();
+            }
+        }, (int) WIDTH, (int) HEIGHT, budget);
+    }
+
+
+    /**
+     * Simplify the mesh shared by every face to levels of detail on a background thread, using the shape of the
+     * average face, then redraw the main window to use them
+     * @param fileParser - parser to get mesh and average face from
+     * @param display - main window to redraw
+     */
+    private static void buildLevelsOfDetail(FileParser fileParser, Rendering display) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Face average = fileParser.getModel().synthesize(new HashMap<Integer, Double>());
+                Mesh mesh = fileParser.getMesh();
+                mesh.setLevels(MeshSimplifier.simplify(mesh, average.positions, LEVEL_OF_DETAIL_FRACTIONS));
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        display.invalidateLayer();
+                        previews.build(previewSettings());
+                    }
+                });
+            }
+        }, "Level of detail");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
     /**
      * Constructor for
@@ -183,17 +424,33 @@ public class Rendering extends JPanel {
             // override only those which interests us
             @Override //I override only one method for presentation
             public void mousePressed(MouseEvent e) {
-                //Update shading and projection
-                shading = (flat.isSelected()) ? Shading.FLAT : Shading.GOURAUD;
-                projection = (orthographic.isSelected()) ? Projection.ORTHOGRAPHIC : Projection.PERSPECTIVE;
-
-                //If point lies within triangle, clear display and plot it
-                Point2D point = new Point2D.Double(e.getX(), e.getY());
-                if (mainFrame && isWithinTriangle(trianglePoints, point)) {
-                    points.clear();
-                    points.add(point);
-                    repaint();
-                }
+                selectPoint(e, false);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                endDrag();
+            }
+        });
+
+        //Moves the point, and morphs the synthetic face if live, while the mouse is dragged
+        addMouseMotionListener(new MouseMotionAdapter() {
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                selectPoint(e, true);
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                hoverPoint(e);
+            }
+        });
+
+        //Shows the selected point's face again when the mouse leaves after previewing other points
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseExited(MouseEvent e) {
+                endHover();
             }
         });
 
@@ -201,38 +458,353 @@ public class Rendering extends JPanel {
         //Action listener for the render button to display the synthetic face
         render.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent actionEvent) {
-                //Update shading and projection
-                shading = (flat.isSelected()) ? Shading.FLAT : Shading.GOURAUD;
-                projection = (orthographic.isSelected()) ? Projection.ORTHOGRAPHIC : Projection.PERSPECTIVE;
+                //Update shading, projection and renderer
+                updateSettings();
 
                 //If a point on the display has been selected
                 if (!points.isEmpty()) {
-                    //Close previous synthetic face if displayed
-                    if (faceRendering != null) {
-                        faceRendering.setVisible(false);
-                        faceRendering.frame.dispose();
-                    }
+                    renderSyntheticFace(points.get(0).getX(), points.get(0).getY());
+                }
+            }
+        });
+
+        //Action listener for the blend button to ask for weights of faces and display the face blended from them
+        blend.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                String input = JOptionPane.showInputDialog(frame,
+                        "Weights of faces by file number, for example 1:0.5 2:0.3 3:0.2",
+                        (faceWeights == null) ? "" : formatWeights(faceWeights));
+                if (input == null || input.trim().isEmpty()) {
+                    return;
+                }
 
-                    //Get weights for each face determined by point in triangle
-                    ArrayList<Double> weights = Triangle.interpolate(points.get(0), trianglePoints);
-                    syntheticFace = new Face(faces, weights);
-
-                    //Create new window to display new synthetic face
-                    faceRendering = new Rendering();
-                    faceRendering.frame = new JFrame();
-                    //Specifies layout of frame
-                    faceRendering.frame.setTitle("Synthetic Face");
-                    faceRendering.frame.setSize((int) WIDTH, (int) HEIGHT);
-                    Container contentPane = faceRendering.frame.getContentPane();
-                    contentPane.add(faceRendering, BorderLayout.CENTER);
-
-                    //Sets frame to visible
-                    faceRendering.frame.setVisible(true);
+                try {
+                    updateSettings();
+                    renderSyntheticFace(BatchRenderer.parseWeights(input.trim()));
+                } catch (IllegalArgumentException e) {
+                    JOptionPane.showMessageDialog(frame, "Cannot blend faces: " + e.getMessage(), "Blend faces",
+                            JOptionPane.ERROR_MESSAGE);
                 }
             }
         });
     }
 
+    /**
+     * @param weightsByFace - weights of faces by file number
+     * @return weights in the form the blend dialog reads
+     */
+    private static String formatWeights(Map<Integer, Double> weightsByFace) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<Integer, Double> weight : weightsByFace.entrySet()) {
+            text.append(text.length() == 0 ? "" : " ").append(weight.getKey()).append(':').append(weight.getValue());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Update shading, projection and renderer from the selected radio buttons
+     */
+    private static void updateSettings() {
+        shading = (flat.isSelected()) ? Shading.FLAT : Shading.GOURAUD;
+        projection = (orthographic.isSelected()) ? Projection.ORTHOGRAPHIC : Projection.PERSPECTIVE;
+        backend = (java2D.isSelected()) ? Backend.JAVA2D : Backend.ZBUFFER;
+    }
+
+    /**
+     * Select the point under the mouse if it lies within the triangle,
+     * and morph the synthetic face to match if live morphing is enabled
+     * @param e - mouse event
+     * @param drag - whether the mouse is being dragged, rather than pressed
+     */
+    private void selectPoint(MouseEvent e, boolean drag) {
+        //Update shading, projection and renderer
+        updateSettings();
+
+        //If point lies within triangle, clear display and plot it
+        Point2D point = new Point2D.Double(e.getX(), e.getY());
+        if (mainFrame && render.isEnabled() && isWithinTriangle(trianglePoints, point)) {
+            //Only the areas around the old and new marker need repainting
+            for (Point2D old : points) {
+                repaintMarker(old);
+            }
+            points.clear();
+            points.add(point);
+            repaintMarker(point);
+
+            if (live.isSelected()) {
+                dragging = drag;
+                renderSyntheticFace(point.getX(), point.getY());
+            }
+        }
+    }
+
+    /**
+     * Draw the face where a live morphing drag settled again, so that it is cached
+     */
+    private static void endDrag() {
+        if (dragging) {
+            dragging = false;
+            requestSyntheticFrame();
+        }
+    }
+
+    /**
+     * Preview the face of the point under the mouse in the synthetic face's window, if live morphing is enabled
+     * and a preview has been rendered. The selected point is not changed
+     * @param e - mouse event
+     */
+    private void hoverPoint(MouseEvent e) {
+        if (!mainFrame || !render.isEnabled() || !live.isSelected() || faceRendering == null || !faceRendering.frame.isVisible()) {
+            return;
+        }
+
+        if (!isWithinTriangle(trianglePoints, new Point2D.Double(e.getX(), e.getY()))) {
+            endHover();
+            return;
+        }
+
+        updateSettings();
+        double[] hoverWeights = new double[3];
+        Triangle.interpolate(e.getX(), e.getY(), trianglePoints, hoverWeights);
+        hovering |= showPreview(hoverWeights);
+    }
+
+    /**
+     * Stop previewing the point under the mouse, drawing the selected point's face again
+     */
+    private static void endHover() {
+        if (hovering) {
+            hovering = false;
+            requestSyntheticFrame();
+        }
+    }
+
+    /**
+     * Show a preview of a face in the synthetic face's window until the next frame is drawn
+     * @param previewWeights - weights of the reference faces
+     * @return whether a preview was shown
+     */
+    private static boolean showPreview(double[] previewWeights) {
+        if (previews == null || !previews.isEnabled()) {
+            return false;
+        }
+
+        BufferedImage preview = previews.preview(previewWeights, previewSettings());
+        if (preview == null) {
+            return false;
+        }
+        faceRendering.renderer.preview(preview, preview.getWidth() * PreviewLattice.DOWNSCALE,
+                preview.getHeight() * PreviewLattice.DOWNSCALE);
+        return true;
+    }
+
+    /**
+     * @return current shading, projection, focal length and renderer, which previews must be rendered with
+     */
+    private static PreviewLattice.Settings previewSettings() {
+        return new PreviewLattice.Settings(shading, projection, focalLength, backend);
+    }
+
+    /**
+     * Blend the reference faces into the synthetic face for a point within the triangle and display it,
+     * reusing the synthetic face and its window if they already exist
+     * @param x - x coordinate of point
+     * @param y - y coordinate of point
+     */
+    private static void renderSyntheticFace(double x, double y) {
+        //Get weights for each face determined by point in triangle
+        Triangle.interpolate(x, y, trianglePoints, weights);
+        faceWeights = null;
+
+        //Show a preview of the face until it has been redrawn
+        showSyntheticWindow();
+        hovering = false;
+        showPreview(weights);
+        requestSyntheticFrame();
+    }
+
+    /**
+     * Blend any number of faces and display the result, in place of the face of the selected point until another
+     * point is selected. Faces are loaded on the render thread, and kept in the face cache
+     * @param weightsByFace - weight of each face by file number, faces with no weight are skipped. Weights are
+     *                        divided by their sum
+     * @throws IllegalArgumentException if there is no face with weight, the weights sum to zero, or a face has no
+     *                                  data to load
+     * @throws IllegalStateException if faces have not finished loading
+     */
+    static void renderSyntheticFace(Map<Integer, Double> weightsByFace) {
+        if (fileParser == null) {
+            throw new IllegalStateException("Faces have not finished loading");
+        }
+
+        boolean weighted = false;
+        double sum = 0;
+        for (Map.Entry<Integer, Double> weight : weightsByFace.entrySet()) {
+            if (weight.getValue() != 0 && !fileParser.hasComponent(weight.getKey())) {
+                throw new IllegalArgumentException(String.format("no data for face %03d (data/sh_%03d.csv and "
+                        + "data/tx_%03d.csv, or the binary dataset)", weight.getKey(), weight.getKey(),
+                        weight.getKey()));
+            }
+            weighted |= weight.getValue() != 0;
+            sum += weight.getValue();
+        }
+        if (!weighted) {
+            throw new IllegalArgumentException("no face has weight");
+        }
+        //Checked here, as blending on the render thread could not report it
+        if (sum == 0) {
+            throw new IllegalArgumentException("weights sum to zero");
+        }
+
+        faceWeights = new TreeMap<>(weightsByFace);
+        showSyntheticWindow();
+        hovering = false;
+        requestSyntheticFrame();
+    }
+
+    /**
+     * Show the synthetic face's window (again, if it was closed), creating it the first time a face is rendered
+     */
+    private static void showSyntheticWindow() {
+        if (faceRendering == null) {
+            faceRendering = new Rendering();
+            faceRendering.renderer = new FrameRenderer(faceRendering);
+            faceRendering.frame = new JFrame();
+            //Specifies layout of frame
+            faceRendering.frame.setTitle("Synthetic Face");
+            faceRendering.frame.setSize((int) WIDTH, (int) HEIGHT);
+            Container contentPane = faceRendering.frame.getContentPane();
+            contentPane.add(faceRendering, BorderLayout.CENTER);
+        }
+
+        if (!faceRendering.frame.isVisible()) {
+            faceRendering.frame.setVisible(true);
+        }
+    }
+
+    /**
+     * Draw the synthetic face with the current weights and settings on the render thread,
+     * superseding any frame still being drawn
+     */
+    private static void requestSyntheticFrame() {
+        //Copy settings, as they may change before the frame is drawn
+        double[] frameWeights = weights.clone();
+        TreeMap<Integer, Double> frameFaceWeights = (faceWeights == null) ? null : new TreeMap<>(faceWeights);
+        Shading frameShading = shading;
+        Projection frameProjection = projection;
+        Backend frameBackend = backend;
+        int frameFocalLength = focalLength;
+        boolean frameHud = hud.isSelected();
+        //Swing state is only read on the event dispatch thread
+        Color frameBackground = faceRendering.getBackground();
+        Font frameFont = faceRendering.getFont();
+        boolean frameDragging = dragging && frameFaceWeights == null;
+
+        faceRendering.renderer.request(new FrameRenderer.Frame() {
+            public boolean render(BufferedImage image, long generation) {
+                //Use the face blended for these weights before, otherwise blend faces into an evicted face rather
+                //than generating a new synthetic face
+                FaceCache.Key key = (frameFaceWeights != null)
+                        ? FaceCache.blendKey(frameFaceWeights) : FaceCache.blendKey(frameWeights);
+                syntheticFace = faceCache.get(key);
+                if (syntheticFace == null && frameDragging) {
+                    //Faces passed over while dragging are not cached, so they are all blended into one face
+                    if (dragFace == null) {
+                        dragFace = faceCache.reuse();
+                    }
+                    if (dragFace == null) {
+                        dragFace = new Face(faces,
+                                new ArrayList<>(Arrays.asList(frameWeights[0], frameWeights[1], frameWeights[2])));
+                    } else {
+                        dragFace.blend(faces, frameWeights);
+                    }
+                    dragKey = key;
+                    syntheticFace = dragFace;
+                } else if (syntheticFace == null && dragFace != null && key.equals(dragKey)) {
+                    //The drag settled on the last face blended, which is cached rather than blended again
+                    syntheticFace = dragFace;
+                    dragFace = null;
+                    dragKey = null;
+                    faceCache.put(key, syntheticFace);
+                } else if (syntheticFace == null) {
+                    syntheticFace = faceCache.reuse();
+                    if (frameFaceWeights != null) {
+                        //Faces with weight, loaded (or found in the cache) by file number
+                        LinkedHashMap<Face, Double> blendWeights = new LinkedHashMap<>();
+                        for (Map.Entry<Integer, Double> weight : frameFaceWeights.entrySet()) {
+                            if (weight.getValue() != 0) {
+                                blendWeights.put(fileParser.loadFace(String.valueOf(weight.getKey())),
+                                        weight.getValue());
+                            }
+                        }
+                        if (syntheticFace == null) {
+                            syntheticFace = new Face(blendWeights);
+                        } else {
+                            syntheticFace.blend(blendWeights);
+                        }
+                    } else if (syntheticFace == null) {
+                        syntheticFace = new Face(faces,
+                                new ArrayList<>(Arrays.asList(frameWeights[0], frameWeights[1], frameWeights[2])));
+                    } else {
+                        syntheticFace.blend(faces, frameWeights);
+                    }
+                    faceCache.put(key, syntheticFace);
+                }
+
+                //Give up if a newer frame has been requested
+                if (!faceRendering.renderer.isCurrent(generation)) {
+                    return false;
+                }
+
+                Graphics2D graphics2D = image.createGraphics();
+                Rasterizer rasterizer = (frameBackend == Backend.ZBUFFER)
+                        ? faceRendering.clearRasterizer(image.getWidth(), image.getHeight(), frameBackground) : null;
+                TriangleBatch batch = drawFace(graphics2D, syntheticFace, rasterizer, frameBackground,
+                        image.getWidth(), image.getHeight(), frameShading, frameProjection, frameFocalLength,
+                        frameBackend);
+
+                //Report how many triangles were culled this frame
+                graphics2D.setFont(frameFont);
+                faceRendering.drawCullCounts(graphics2D, image.getHeight(), batch.triangleCount,
+                        batch.culledOffScreen, batch.culledSmall);
+                if (frameHud) {
+                    drawMetrics(graphics2D);
+                }
+                graphics2D.dispose();
+                return true;
+            }
+        }, faceRendering.getWidth(), faceRendering.getHeight());
+    }
+
+    /**
+     * Draw a face where the synthetic face is drawn in its window
+     * @param graphics2D - to draw face with
+     * @param face - to draw
+     * @param rasterizer - cleared software renderer the size of the area drawn, only used by the z-buffer renderer
+     * @param background - colour to fill area with before drawing with Java2D
+     * @param width - of area drawn
+     * @param height - of area drawn
+     * @param shading - shading type (flat or gouraud)
+     * @param projection - projection type (orthographic or perspective)
+     * @param focalLength - focal length (distance from camera to image)
+     * @param backend - renderer to draw with
+     * @return triangles drawn, and how many were culled
+     */
+    private static TriangleBatch drawFace(Graphics2D graphics2D, Face face, Rasterizer rasterizer, Color background,
+                                          int width, int height, Shading shading, Projection projection,
+                                          int focalLength, Backend backend) {
+        if (backend == Backend.ZBUFFER) {
+            TriangleBatch batch = face.rasterize(rasterizer, shading, projection, focalLength,
+                    WIDTH, HEIGHT, -250, -300, 14);
+            graphics2D.drawImage(rasterizer.image, 0, 0, null);
+            return batch;
+        }
+
+        graphics2D.setColor(background);
+        graphics2D.fillRect(0, 0, width, height);
+        return face.display(graphics2D, shading, projection, focalLength, WIDTH, HEIGHT, -250, -300, 14);
+    }
+
     /**
      * Repaints the display
      * @param g - graphics object used to paint display
@@ -243,20 +815,127 @@ public class Rendering extends JPanel {
 
         //If JFrame is the main frame
         if (mainFrame) {
-            //Display and draw triangle for user to click within
-            displayTriangle(graphics2D, trianglePoints, faces);
+            //Display triangle for user to click within, drawn with the faces once and then reused
+            if (layer == null || layer.getWidth() != getWidth() || layer.getHeight() != getHeight()) {
+                layerValid = false;
+            }
+            if (!layerValid) {
+                renderLayer();
+            }
+            Metrics.Span span = Metrics.begin(Stage.BLIT);
+            graphics2D.drawImage(layer, 0, 0, null);
+            span.end();
 
             //If user has clicked within triangle
             if (!points.isEmpty()) {
                 //Plot point point in triangle where user clicked
                 plotPoints(graphics2D, points);
             }
+            Metrics.recordFirstFrame();
+
+        //If synthetic face has been requested, show the last frame drawn (drawing it again if the window has
+        //changed size)
+        } else if (renderer != null) {
+            renderer.resize(getWidth(), getHeight());
+            renderer.draw(graphics2D);
+        }
+    }
+
+    /**
+     * Draw frame times and the time and memory taken by each stage in the top left corner of the window
+     * @param graphics2D - to draw text
+     */
+    private static void drawMetrics(Graphics2D graphics2D) {
+        graphics2D.setColor(Color.BLACK);
+        graphics2D.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        int y = 20;
+        for (String line : Metrics.summary()) {
+            graphics2D.drawString(line, 10, y);
+            y += 15;
+        }
+        graphics2D.drawString(faceCache.summary(), 10, y);
+    }
+
+    /**
+     * Draw the number of triangles drawn and culled in the bottom left corner of the window
+     * @param graphics2D - to draw text
+     * @param height - of area being drawn
+     * @param drawn - number of triangles drawn
+     * @param offScreen - number of triangles culled for being off screen
+     * @param small - number of triangles culled for being too small to cover a pixel
+     */
+    private void drawCullCounts(Graphics2D graphics2D, int height, int drawn, int offScreen, int small) {
+        graphics2D.setColor(Color.BLACK);
+        graphics2D.drawString("Triangles drawn: " + drawn + ", culled: " + offScreen + " off screen, " + small
+                + " too small", 10, height - 10);
+    }
 
-        //If synthetic face has been generated
-        } else if (syntheticFace != null) {
-            //Display the synthetic face in the second window
-            syntheticFace.display(graphics2D, shading, projection, focalLength, WIDTH, HEIGHT, -250, -300, 14);
+    /**
+     * Draw the triangle and reference faces into this window's layer
+     */
+    private void renderLayer() {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        if (layer == null || layer.getWidth() != width || layer.getHeight() != height) {
+            layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         }
+
+        Graphics2D graphics2D = layer.createGraphics();
+        graphics2D.setColor(getBackground());
+        graphics2D.fillRect(0, 0, width, height);
+        graphics2D.setColor(getForeground());
+        graphics2D.setFont(getFont());
+
+        displayTriangle(graphics2D, trianglePoints, faces);
+        graphics2D.dispose();
+        layerValid = true;
+    }
+
+    /**
+     * Redraw the triangle and reference faces on the next repaint, after they or how they are drawn change
+     */
+    void invalidateLayer() {
+        layerValid = false;
+        repaint();
+    }
+
+    /**
+     * Repaint only the area around a marker
+     * @param point - centre of marker
+     */
+    private void repaintMarker(Point2D point) {
+        repaint((int) point.getX() - MARKER_SIZE, (int) point.getY() - MARKER_SIZE,
+                MARKER_SIZE * 2 + 1, MARKER_SIZE * 2 + 1);
+    }
+
+    /**
+     * Get this window's rasterizer, cleared to the background colour
+     * @return rasterizer the size of this window
+     */
+    private Rasterizer clearRasterizer() {
+        return clearRasterizer(getWidth(), getHeight(), getBackground());
+    }
+
+    /**
+     * Get this window's rasterizer, cleared to a colour
+     * @param width - of image to render
+     * @param height - of image to render
+     * @param background - colour to clear to
+     * @return rasterizer of the given size
+     */
+    private Rasterizer clearRasterizer(int width, int height, Color background) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+
+        if (rasterizer == null || rasterizer.width != width || rasterizer.height != height) {
+            rasterizer = new Rasterizer(width, height);
+            //Rasterize tiles on every core
+            rasterizer.setPool(ForkJoinPool.commonPool());
+        }
+
+        rasterizer.clear(background.getRGB());
+        return rasterizer;
     }
 
     /**
@@ -299,10 +978,16 @@ public class Rendering extends JPanel {
      * @param faces - faces to display on vertices of triangle
      */
     private void displayTriangle(Graphics2D graphics2D, ArrayList<Point2D> points, ArrayList<Face> faces) {
-        //Draw edges between vertices
-        drawEdges(graphics2D, points);
-        //Display faces at vertcies of triangle
-        displayFaces(graphics2D, faces);
+        if (backend == Backend.ZBUFFER) {
+            //Display faces at vertices of triangle, then draw edges over the rendered image
+            displayFaces(graphics2D, faces);
+            drawEdges(graphics2D, points);
+        } else {
+            //Draw edges between vertices
+            drawEdges(graphics2D, points);
+            //Display faces at vertcies of triangle
+            displayFaces(graphics2D, faces);
+        }
     }
 
     /**
@@ -316,7 +1001,8 @@ public class Rendering extends JPanel {
             //Set colour to black
             graphics2D.setColor(Color.BLACK);
             //Fill oval representing point
-            graphics2D.fillOval((int) (p.getX() - 5.0 / 2.0), (int) (p.getY() - 5.0 / 2.0), 5, 5);
+            graphics2D.fillOval((int) (p.getX() - MARKER_SIZE / 2.0), (int) (p.getY() - MARKER_SIZE / 2.0),
+                    MARKER_SIZE, MARKER_SIZE);
         }
     }
 
@@ -349,16 +1035,69 @@ public class Rendering extends JPanel {
      * @param faces - to display
      */
     private void displayFaces(Graphics2D graphics2D, ArrayList<Face> faces) {
-        //Display reference faces using flat shading and orthographic perspective to reduce execution time to render
-        faces.get(0).display(graphics2D, Shading.FLAT, Projection.ORTHOGRAPHIC, focalLength, WIDTH, HEIGHT, -215, -300, 5);
-        faces.get(1).display(graphics2D, Shading.FLAT, Projection.ORTHOGRAPHIC, focalLength, WIDTH, HEIGHT, 200, 100, 5);
-        faces.get(2).display(graphics2D, Shading.FLAT, Projection.ORTHOGRAPHIC, focalLength, WIDTH, HEIGHT, -600, 100, 5);
+        //Shift of each face to fit on its vertex of the triangle
+        double[][] shifts = {{-215, -300}, {200, 100}, {-600, 100}};
+        //Total triangles drawn and culled over the faces
+        int drawn = 0, offScreen = 0, small = 0;
+
+        //Render reference faces into one image if using the software renderer
+        Rasterizer rasterizer = backend == Backend.ZBUFFER ? clearRasterizer() : null;
+
+        for (int f = 0; f < 3; f++) {
+            //Face is still loading
+            if (faces.get(f) == null) {
+                continue;
+            }
+
+            TriangleBatch batch;
+            //Display reference faces using flat shading and orthographic perspective to reduce execution time to render
+            if (rasterizer != null) {
+                batch = faces.get(f).rasterize(rasterizer, Shading.FLAT, Projection.ORTHOGRAPHIC, focalLength,
+                        WIDTH, HEIGHT, shifts[f][0], shifts[f][1], 5);
+            } else {
+                batch = faces.get(f).display(graphics2D, Shading.FLAT, Projection.ORTHOGRAPHIC, focalLength,
+                        WIDTH, HEIGHT, shifts[f][0], shifts[f][1], 5);
+            }
+
+            drawn += batch.triangleCount;
+            offScreen += batch.culledOffScreen;
+            small += batch.culledSmall;
+        }
+
+        if (rasterizer != null) {
+            graphics2D.drawImage(rasterizer.image, 0, 0, null);
+        }
+
+        //Mark faces still loading in their corners of the triangle
+        graphics2D.setColor(Color.BLACK);
+        for (int f = 0; f < 3; f++) {
+            if (faces.get(f) == null) {
+                Point2D corner = trianglePoints.get(f);
+                graphics2D.drawString("Loading face...", (int) corner.getX() - 40, (int) corner.getY() - 20);
+            }
+        }
+
+        //Report how many triangles were culled this frame
+        drawCullCounts(graphics2D, getHeight(), drawn, offScreen, small);
     }
 
     /**
      * Listener for UI slider
      */
     static class SliderListener implements ChangeListener {
+        //Redraws the synthetic face with the latest focal length at most once per refresh of the display
+        private final Timer timer = new Timer(refreshInterval(), new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                if (faceRendering != null && faceRendering.frame.isVisible() && projection == Projection.PERSPECTIVE) {
+                    requestSyntheticFrame();
+                }
+            }
+        });
+
+        SliderListener() {
+            timer.setRepeats(false);
+        }
+
         /**
          * Run if slider's state has been changed
          * @param e - event to represent slider being adjusted
@@ -366,13 +1105,27 @@ public class Rendering extends JPanel {
         public void stateChanged(ChangeEvent e) {
             //Get value of slider
             JSlider source = (JSlider)e.getSource();
-            //If slider is not currently being adjusted
-            if (!source.getValueIsAdjusting()) {
-                //Update value of focal length
-                // (scaled up by a factor of 10,000 to be of high enough precision when multiplying points)
-                focalLength = source.getValue() * 10000;
+            //Update value of focal length, including while the slider is being dragged
+            // (scaled up by a factor of 10,000 to be of high enough precision when multiplying points)
+            focalLength = source.getValue() * 10000;
+
+            //Changes until the timer fires are drawn together, using the focal length at that time
+            if (!timer.isRunning()) {
+                timer.start();
+            }
+        }
+
+        /**
+         * @return milliseconds between refreshes of the display (assuming 60 Hz if unknown)
+         */
+        private static int refreshInterval() {
+            int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+            if (!GraphicsEnvironment.isHeadless()) {
+                refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                        .getDisplayMode().getRefreshRate();
             }
+            return 1000 / (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : refreshRate);
         }
     }
 
-}
\ No newline at end of file
+}
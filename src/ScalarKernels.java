@@ -0,0 +1,52 @@
+/**
+ * Kernels as plain loops, used when the Vector API is not available
+ */
+public class ScalarKernels implements Kernels {
+    @Override
+    public void weightedSum(float[] out, float[][] values, float[] weights, int start, int end) {
+        float[] first = values[0];
+        float weight = weights[0];
+        for (int i = start; i < end; i++) {
+            out[i] = weight * first[i];
+        }
+
+        for (int k = 1; k < values.length; k++) {
+            float[] array = values[k];
+            float w = weights[k];
+            for (int i = start; i < end; i++) {
+                out[i] += w * array[i];
+            }
+        }
+    }
+
+    @Override
+    public void transform(ScreenTransform transform, float[] positions, int vertexCount, float[] screenX,
+                          float[] screenY) {
+        double xx = transform.xx, xz = transform.xz, xw = transform.xw;
+        double yy = transform.yy, yz = transform.yz, yw = transform.yw;
+        double wz = transform.wz, ww = transform.ww;
+
+        if (transform.affine) {
+            for (int v = 0; v < vertexCount; v++) {
+                screenX[v] = (float) (xx * positions[v * 3] + xw);
+                screenY[v] = (float) (yy * positions[v * 3 + 1] + yw);
+            }
+            return;
+        }
+
+        for (int v = 0; v < vertexCount; v++) {
+            double x = positions[v * 3];
+            double y = positions[v * 3 + 1];
+            double z = positions[v * 3 + 2];
+
+            double w = 1 / (wz * z + ww);
+            screenX[v] = (float) ((xx * x + xz * z + xw) * w);
+            screenY[v] = (float) ((yy * y + yz * z + yw) * w);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
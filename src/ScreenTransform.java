@@ -0,0 +1,71 @@
+/**
+ * Projection, flip, scale, centre and shift of face coordinates to screen coordinates, composed into a single
+ * projective matrix so every vertex is transformed with one multiply-add per term (and one divide if perspective):
+ * screen x = (x row . (x, y, z, 1)) / (w row . (x, y, z, 1)), likewise for y
+ */
+public class ScreenTransform {
+    //Rows of the 3 x 4 matrix giving screen x, screen y and w (read by Kernels)
+    final double xx, xz, xw;
+    final double yy, yz, yw;
+    final double wz, ww;
+    //Whether w is always 1, so the divide can be skipped
+    final boolean affine;
+
+    /**
+     * @param projection - projection type (orthographic or perspective)
+     * @param focalLength - focal length (distance from camera to image)
+     * @param width - of screen
+     * @param height - of screen
+     * @param shiftX - how much to shift image horizontally
+     * @param shiftY - how much to shift image vertically
+     * @param scale - how much to scale size of image to fit nicely on screen
+     */
+    ScreenTransform(Projection projection, int focalLength, double width, double height,
+                    double shiftX, double shiftY, double scale) {
+        //Scale of image determined by focal length if perspective projection
+        if (projection == Projection.PERSPECTIVE) {
+            scale = (double) focalLength / 10000;
+        }
+
+        //Scaling to fit display (weighted by aspect ratio) then halving to centre gives a quarter of the
+        //scaled screen size, the image is flipped to be the correct way up, then centred and shifted
+        double sx = width / 16 * scale / 4;
+        double sy = -height / 9 * scale / 4;
+        double cx = width / 2 + width / 16 * scale / 4 + shiftX;
+        double cy = height / 2 + height / 9 * scale / 4 + shiftY;
+
+        if (projection == Projection.PERSPECTIVE) {
+            //z is shifted by focal length so z = 0 is the depth of the screen, then x and y are scaled by f / z
+            xx = sx * focalLength;
+            xz = cx;
+            xw = cx * focalLength;
+            yy = sy * focalLength;
+            yz = cy;
+            yw = cy * focalLength;
+            wz = 1;
+            ww = focalLength;
+            affine = false;
+        } else {
+            xx = sx;
+            xz = 0;
+            xw = cx;
+            yy = sy;
+            yz = 0;
+            yw = cy;
+            wz = 0;
+            ww = 1;
+            affine = true;
+        }
+    }
+
+    /**
+     * Transform vertices to screen coordinates
+     * @param positions - x, y, z coordinate of each vertex
+     * @param vertexCount - number of vertices
+     * @param screenX - to store x screen coordinate of each vertex in
+     * @param screenY - to store y screen coordinate of each vertex in
+     */
+    void apply(float[] positions, int vertexCount, float[] screenX, float[] screenY) {
+        Kernels.SELECTED.transform(this, positions, vertexCount, screenX, screenY);
+    }
+}
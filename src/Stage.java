@@ -0,0 +1,21 @@
+/**
+ * Stage of loading or rendering a face, measured by Metrics
+ */
+public enum Stage {
+    //Reading the mesh, average face and components from files
+    LOAD,
+    //Weighting and summing faces or components
+    SYNTHESIZE,
+    //Scaling positions to fit the screen
+    NORMALISE,
+    //Ordering triangles by depth for painter's algorithm
+    SORT,
+    //Projecting vertices to the screen
+    TRANSFORM,
+    //Dropping triangles which cannot be seen
+    CULL,
+    //Filling triangles
+    SHADE,
+    //Copying a finished image to the screen
+    BLIT
+}
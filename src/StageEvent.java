@@ -0,0 +1,24 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event for one run of a stage, recorded when a recording with it enabled is running
+ * (e.g. java -XX:StartFlightRecording:filename=rendering.jfr Rendering)
+ */
+@Name("FaceRendering.Stage")
+@Label("Render Stage")
+@Category("Face Rendering")
+@Description("Time and memory taken by one stage of loading or rendering a face")
+public class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread running the stage")
+    @DataAmount
+    long allocated;
+}
@@ -3,14 +3,17 @@ import java.awt.geom.Point2D;
 import java.util.ArrayList;
 
 /**
- * Represents a triangle in the face
+ * Triangle operations: barycentric interpolation and drawing triangles of a face
  */
 public class Triangle {
-    //Represents the vertices in the triangle
-    ArrayList<Vertex> vertices = new ArrayList<>();
-
     //https://en.wikipedia.org/wiki/Barycentric_coordinate_system#Barycentric_coordinates_on_triangles
 
+    //Paint used for Gouraud shading, reused for every triangle drawn by a thread
+    private static final ThreadLocal<GouraudPaint> GOURAUD_PAINT = ThreadLocal.withInitial(GouraudPaint::new);
+    //Polygon each triangle is filled as, reused for every triangle drawn by a thread
+    private static final ThreadLocal<Polygon> POLYGON =
+            ThreadLocal.withInitial(() -> new Polygon(new int[3], new int[3], 3));
+
     /**
      * Interpolate points of triangle 2D space using Barycentric coordinates
      * @param point - (x, y)
@@ -18,9 +21,25 @@ public class Triangle {
      * @return list of doubles - lambda1, lambda2, lambda3 (the 'weight' of each point i)
      */
     static ArrayList<Double> interpolate(Point2D point, ArrayList<Point2D> points) {
-        //Get coords of point in triangle
-        double x = point.getX();
-        double y = point.getY();
+        double[] lambdas = new double[3];
+        interpolate(point.getX(), point.getY(), points, lambdas);
+
+        ArrayList<Double> weights = new ArrayList<>();
+        //Add each coordinate to list of weights
+        weights.add(lambdas[0]);
+        weights.add(lambdas[1]);
+        weights.add(lambdas[2]);
+        return weights;
+    }
+
+    /**
+     * Interpolate points of triangle 2D space using Barycentric coordinates, without allocating
+     * @param x - x coordinate of point
+     * @param y - y coordinate of point
+     * @param points - (xi, yi) where i is in domain {1, 2, 3}
+     * @param weights - to store lambda1, lambda2, lambda3 (the 'weight' of each point i) in
+     */
+    static void interpolate(double x, double y, ArrayList<Point2D> points, double[] weights) {
         //Get coords of first vertex
         double x1 = points.get(0).getX();
         double y1 = points.get(0).getY();
@@ -35,186 +54,93 @@ public class Triangle {
         double determinate = (y2 - y3) * (x1 - x3) + (x3 - x2) * (y1 - y3);
 
         //Calculate barycentric coordinates for each vertex of triangle
-        double lambda1 = ((y2 - y3) * (x - x3) + (x3 - x2) * (y - y3)) / determinate;
-        double lambda2 = ((y3 - y1) * (x - x3) + (x1 - x3) * (y - y3)) / determinate;
-        double lambda3 = 1 - lambda1 - lambda2;
-
-        ArrayList<Double> weights = new ArrayList<>();
-        //Add each coordinate to list of weights
-        weights.add(lambda1);
-        weights.add(lambda2);
-        weights.add(lambda3);
-        return weights;
-    }
-
-    /**
-     * Calculates average depth of three vertices
-     * @return average depth of vertices
-     */
-    Double averageDepth() {
-        double z = 0;
-
-        //Sum vertices z coords
-        for (Vertex v : vertices) {
-            z += v.z;
-        }
-
-        //Calculate average z
-        z /= vertices.size();
-        return z;
+        weights[0] = ((y2 - y3) * (x - x3) + (x3 - x2) * (y - y3)) / determinate;
+        weights[1] = ((y3 - y1) * (x - x3) + (x1 - x3) * (y - y3)) / determinate;
+        weights[2] = 1 - weights[0] - weights[1];
     }
 
     /**
      * Draws triangle of face
      * @param graphics2D - used to draw
-     * @param displayWidth - width of display
-     * @param displayHeight - height of display
+     * @param screenX - x screen coordinate of each vertex
+     * @param screenY - y screen coordinate of each vertex
+     * @param colours - r, g, b colour of each vertex
+     * @param v0 - index of first vertex of triangle
+     * @param v1 - index of second vertex of triangle
+     * @param v2 - index of third vertex of triangle
      * @param shading - shading technique in use
-     * @param projection - projection technique in use
-     * @param focalLength - focal length between camera and screen
-     * @param shiftX - shift image horizontally by this much
-     * @param shiftY - shift image vertically by this much
-     * @param scale - scale image size by this much if orthogonal
      */
-    public void draw(Graphics2D graphics2D, double displayWidth, double displayHeight, Shading shading, Projection projection, int focalLength, double shiftX, double shiftY, double scale) {
-        ArrayList<Vertex> coords = new ArrayList<>();
-
-        //For each vertex in triangle
-        for (Vertex v : vertices) {
-            Vertex vertex = new Vertex(v.x, v.y, v.z,v.r, v.g, v.b);
-
-            //Shift z coord by focal length such that when z = 0, it equals the depth of the screen on which to project the face
-            vertex.z += focalLength;
-
-            //If using perspective projection
-            if (projection == Projection.PERSPECTIVE) {
-               // System.out.println("f/z = r/R:" + focalLength + "/" + (vertex.z));
-                double x = vertex.x;
-                double y = vertex.y;
-
-                //Calculate projected x coordinate
-                vertex.x = focalLength * (vertex.x / vertex.z);
-                //Calculate projected y coordinate
-                vertex.y = focalLength * (vertex.y / vertex.z);
-
-                //Scale of image determined by focal length
-                scale = (double) focalLength / 10000;
-               // System.out.println("x/X = y/Y = r/R: " + vertex.x / x + " = " + vertex.y / y + " = " + (double) focalLength / vertex.z);
-            }
-
-            //Flips image to be the correct way up
-            vertex.flip();
-
-            //Scales image to fit display (based on focal length if perspective projection)
-            vertex.scale(displayWidth, displayHeight, scale);
-
-            //Centres image
-            vertex.centre(displayWidth, displayHeight);
-
-            //Shifts image by specified x and y (when displaying reference face to fit on triangle)
-            vertex.shift(shiftX, shiftY);
-
-            //Adds processed triangle to list of coords
-            coords.add(vertex);
-        }
-
-        //Generate list of integers to store vertices of triangle (Polygon object can only take lists of ints)
-        int[] x = new int[vertices.size()];
-        int[] y = new int[vertices.size()];
-
-        //Get coords as primitive array to initialise polygon
-        for (int v = 0; v < coords.size(); v++) {
-            x[v] = (int) coords.get(v).x;
-            y[v] = (int) coords.get(v).y;
-        }
-
-        //Create polygon object to represent triangle
-        Polygon polygon = new Polygon(x, y, vertices.size());
+    static void draw(Graphics2D graphics2D, float[] screenX, float[] screenY, float[] colours,
+                     int v0, int v1, int v2, Shading shading) {
+        //Set polygon to represent triangle (Polygon object can only take ints)
+        Polygon polygon = POLYGON.get();
+        polygon.xpoints[0] = (int) screenX[v0];
+        polygon.xpoints[1] = (int) screenX[v1];
+        polygon.xpoints[2] = (int) screenX[v2];
+        polygon.ypoints[0] = (int) screenY[v0];
+        polygon.ypoints[1] = (int) screenY[v1];
+        polygon.ypoints[2] = (int) screenY[v2];
+        //Bounds cached for the previous triangle are no longer valid
+        polygon.invalidate();
 
         //If shading method is flat
         if (shading == Shading.FLAT) {
             //Then shade the polygon using the flat shading method
-            shadeFlat(graphics2D, coords, polygon);
+            shadeFlat(graphics2D, colours, v0, v1, v2, polygon);
 
         //Otherwise if it is Gouraud
         } else if (shading == Shading.GOURAUD) {
             // Shade the polygon using Gouraud shading
-           shadeGouraud(graphics2D, coords, polygon);
+            shadeGouraud(graphics2D, screenX, screenY, colours, v0, v1, v2, polygon);
         }
     }
 
     /**
      * Shades a polygon using the average colour of the 3 vertices
      * @param graphics2D - to render polygon
-     * @param vertices - list of vertices of triangle
+     * @param colours - r, g, b colour of each vertex
+     * @param v0 - index of first vertex of triangle
+     * @param v1 - index of second vertex of triangle
+     * @param v2 - index of third vertex of triangle
+     * @param polygon - to be drawn
      */
-    private void shadeFlat(Graphics2D graphics2D, ArrayList<Vertex> vertices, Polygon polygon) {
-        double r = 0;
-        double g = 0;
-        double b = 0;
-
-        for (Vertex v : vertices) {
-            //Sum RGB values of vertices
-            r += v.r;
-            g += v.g;
-            b += v.b;
-        }
-
+    private static void shadeFlat(Graphics2D graphics2D, float[] colours, int v0, int v1, int v2, Polygon polygon) {
         //Find average colour of triangle
-        r /= vertices.size();
-        g /= vertices.size();
-        b /= vertices.size();
+        float r = (colours[v0 * 3] + colours[v1 * 3] + colours[v2 * 3]) / 3;
+        float g = (colours[v0 * 3 + 1] + colours[v1 * 3 + 1] + colours[v2 * 3 + 1]) / 3;
+        float b = (colours[v0 * 3 + 2] + colours[v1 * 3 + 2] + colours[v2 * 3 + 2]) / 3;
 
-        //Set the colour to this average colour
-        graphics2D.setColor(new Color((float) r / 255, (float) g / 255, (float) b / 255));
-       //Draw the polygon with that colour
+        //Set the colour to this average colour, clamped as blends with negative weights can leave 0 - 255
+        graphics2D.setColor(new Color(clamp(r) / 255, clamp(g) / 255, clamp(b) / 255));
+        //Draw the polygon with that colour
         graphics2D.fillPolygon(polygon);
     }
 
     /**
-     * Shades a polygon by filling in each point using the interpolation of each of the three vertices' colours
-     * does this using GradientPaint rather than pixel by pixel due to performance
+     * Clamp a colour channel to 0 - 255
+     */
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Shades a polygon by filling in each point using the interpolation of each of the three vertices' colours,
+     * in a single fill using a paint which interpolates colour per pixel
      * @param graphics2D - to draw polygon
-     * @param vertices - of triangle
+     * @param screenX - x screen coordinate of each vertex
+     * @param screenY - y screen coordinate of each vertex
+     * @param colours - r, g, b colour of each vertex
+     * @param v0 - index of first vertex of triangle
+     * @param v1 - index of second vertex of triangle
+     * @param v2 - index of third vertex of triangle
      * @param polygon - to be drawn
      */
-    private void shadeGouraud(Graphics2D graphics2D, ArrayList<Vertex> vertices, Polygon polygon) {
-        ArrayList<Color> colours = new ArrayList<>();
-        //Get coordinate of each vertex
-        float x0 = (float) vertices.get(0).x;
-        float y0 = (float) vertices.get(0).y;
-        float x1 = (float) vertices.get(1).x;
-        float y1 = (float) vertices.get(1).y;
-        float x2 = (float) vertices.get(2).x;
-        float y2 = (float) vertices.get(2).y;
-
-
-        //Store colour for each vertex
-        for (Vertex v : vertices) {
-            Color color = new Color((float) v.r / 255, (float) v.g / 255, (float) v.b / 255);
-            colours.add(color);
-        }
-
-        //Generate gradient from each vertex to each other vertex, starting at colour of the first vertex
-        // and transition to colour of second vertex:
-
-        //Generate gradient c0 to c1 for point (x0, y0) to point (x1, y1)
-        GradientPaint gradient1 = new GradientPaint(x0, y0, colours.get(0), x1, y1, colours.get(1));
-        //Generate gradient c1 to c2 for point (x1, y1) to point (x2, y2)
-        GradientPaint gradient2 = new GradientPaint(x1, y1, colours.get(1), x2, y2, colours.get(2));
-        //Generate gradient c2 to c0 for point (x2, y2) to point (x0, y0)
-        GradientPaint gradient3 = new GradientPaint(x2, y2, colours.get(2), x0, y0, colours.get(0));
-
-        //Apply first gradient
-        graphics2D.setPaint(gradient1);
-        graphics2D.fillPolygon(polygon);
-
-        //Apply second gradient
-        graphics2D.setPaint(gradient2);
-        graphics2D.fillPolygon(polygon);
+    private static void shadeGouraud(Graphics2D graphics2D, float[] screenX, float[] screenY, float[] colours,
+                                     int v0, int v1, int v2, Polygon polygon) {
+        GouraudPaint paint = GOURAUD_PAINT.get();
+        paint.set(screenX, screenY, colours, v0, v1, v2);
 
-        //Apply third gradient
-        graphics2D.setPaint(gradient3);
+        graphics2D.setPaint(paint);
         graphics2D.fillPolygon(polygon);
     }
 
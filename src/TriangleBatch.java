@@ -0,0 +1,115 @@
+/**
+ * Triangles of a face transformed to screen space, ready to be drawn.
+ * Arrays are reused between frames and only reallocated if a larger mesh is drawn
+ */
+public class TriangleBatch {
+    //Furthest the rasterizer may move a vertex when snapping it to sub pixels
+    private static final float SNAP_MARGIN = 1f / Rasterizer.SUBPIXEL_SCALE;
+
+    //Screen coordinates and depth of each vertex
+    float[] screenX = new float[0];
+    float[] screenY = new float[0];
+    float[] depth = new float[0];
+
+    //r, g, b colour of each vertex (shared with the face, not copied)
+    float[] colours;
+    //Vertex indices of each triangle in the mesh, three per triangle
+    int[] indices;
+
+    //Triangles to draw, as triangle numbers in the mesh
+    int[] triangles = new int[0];
+    int triangleCount;
+
+    //Number of triangles removed by the last cull, by reason
+    int culledOffScreen;
+    int culledSmall;
+
+    /**
+     * Prepare batch to hold a face
+     * @param mesh - triangles of face
+     * @param colours - r, g, b colour of each vertex of face
+     */
+    void reset(Mesh mesh, float[] colours) {
+        if (screenX.length < mesh.vertexCount) {
+            screenX = new float[mesh.vertexCount];
+            screenY = new float[mesh.vertexCount];
+            depth = new float[mesh.vertexCount];
+        }
+
+        if (triangles.length < mesh.triangleCount()) {
+            triangles = new int[mesh.triangleCount()];
+        }
+
+        this.colours = colours;
+        this.indices = mesh.indices;
+        this.triangleCount = 0;
+        this.culledOffScreen = 0;
+        this.culledSmall = 0;
+    }
+
+    /**
+     * Choose which triangles to draw, dropping only those neither renderer would fill: triangles entirely off screen,
+     * and triangles too small to cover the centre of any pixel. Back facing triangles are kept, as the mesh does not
+     * wind every triangle the same way (about a fifth wind the other way on screen, including visible ones), and are
+     * hidden by the depth order or depth buffer where they are covered
+     * @param order - triangles to consider in the order to draw them, or null for every triangle in mesh order
+     * @param width - of screen
+     * @param height - of screen
+     * @param truncate - whether vertices will be truncated to whole pixels when drawn (Java2D polygons)
+     */
+    void cull(int[] order, int width, int height, boolean truncate) {
+        Metrics.Span span = Metrics.begin(Stage.CULL);
+        int count = indices.length / 3;
+        triangleCount = 0;
+        culledOffScreen = 0;
+        culledSmall = 0;
+
+        for (int i = 0; i < count; i++) {
+            int t = order == null ? i : order[i];
+            int v0 = indices[t * 3];
+            int v1 = indices[t * 3 + 1];
+            int v2 = indices[t * 3 + 2];
+
+            float x0 = screenX[v0], y0 = screenY[v0];
+            float x1 = screenX[v1], y1 = screenY[v1];
+            float x2 = screenX[v2], y2 = screenY[v2];
+            if (truncate) {
+                x0 = (int) x0;
+                y0 = (int) y0;
+                x1 = (int) x1;
+                y1 = (int) y1;
+                x2 = (int) x2;
+                y2 = (int) y2;
+            }
+
+            float minX = Math.min(x0, Math.min(x1, x2));
+            float maxX = Math.max(x0, Math.max(x1, x2));
+            float minY = Math.min(y0, Math.min(y1, y2));
+            float maxY = Math.max(y0, Math.max(y1, y2));
+            if (maxX < 0 || maxY < 0 || minX > width || minY > height) {
+                culledOffScreen++;
+                continue;
+            }
+
+            //Pixels are sampled at their centres, so a triangle must span at least one centre in each direction
+            //(allowing for the rasterizer snapping vertices to sub pixels)
+            float area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+            float margin = truncate ? 0 : SNAP_MARGIN;
+            if (area == 0 || Math.ceil(minX - margin - 0.5f) > Math.floor(maxX + margin - 0.5f)
+                    || Math.ceil(minY - margin - 0.5f) > Math.floor(maxY + margin - 0.5f)) {
+                culledSmall++;
+                continue;
+            }
+
+            triangles[triangleCount++] = t;
+        }
+        span.end();
+    }
+
+    /**
+     * @return number of triangles removed by the last cull
+     */
+    int culledCount() {
+        return culledOffScreen + culledSmall;
+    }
+}